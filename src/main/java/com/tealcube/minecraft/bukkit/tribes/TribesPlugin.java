@@ -33,35 +33,71 @@ import com.tealcube.minecraft.bukkit.tribes.commands.GCommand;
 import com.tealcube.minecraft.bukkit.tribes.commands.PvpCommand;
 import com.tealcube.minecraft.bukkit.tribes.commands.TribeCommand;
 import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.ChangeListener;
 import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.RemovalListener;
 import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
 import com.tealcube.minecraft.bukkit.tribes.listeners.PlayerListener;
+import com.tealcube.minecraft.bukkit.tribes.listeners.RegionListener;
 import com.tealcube.minecraft.bukkit.tribes.managers.CellManager;
+import com.tealcube.minecraft.bukkit.tribes.managers.ClaimIndex;
 import com.tealcube.minecraft.bukkit.tribes.managers.MemberManager;
 import com.tealcube.minecraft.bukkit.tribes.managers.PvpManager;
+import com.tealcube.minecraft.bukkit.tribes.managers.RegionLoader;
+import com.tealcube.minecraft.bukkit.tribes.managers.TerritoryMap;
 import com.tealcube.minecraft.bukkit.tribes.managers.TribeManager;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import com.tealcube.minecraft.bukkit.tribes.storage.DataJournal;
+import com.tealcube.minecraft.bukkit.tribes.storage.DataSaveExecutor;
+import com.tealcube.minecraft.bukkit.tribes.storage.DataSnapshot;
 import com.tealcube.minecraft.bukkit.tribes.storage.DataStorage;
+import com.tealcube.minecraft.bukkit.tribes.storage.DataVisitor;
+import com.tealcube.minecraft.bukkit.tribes.storage.MeteredDataStorage;
+import com.tealcube.minecraft.bukkit.tribes.storage.MysqlDataStorage;
+import com.tealcube.minecraft.bukkit.tribes.storage.SnapshotFile;
 import com.tealcube.minecraft.bukkit.tribes.storage.SqliteDataStorage;
+import com.tealcube.minecraft.bukkit.tribes.storage.StorageMetrics;
 import com.tealcube.minecraft.bukkit.tribes.tasks.DataCleanTask;
+import com.tealcube.minecraft.bukkit.tribes.tasks.DataCompactTask;
 import com.tealcube.minecraft.bukkit.tribes.tasks.DataSaveTask;
 import info.faceland.q.QPlugin;
 import net.milkbowl.vault.economy.Economy;
+import org.bukkit.World;
 import org.bukkit.event.HandlerList;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import se.ranzdo.bukkit.methodcommand.CommandHandler;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 public class TribesPlugin extends FacePlugin {
 
     private static TribesPlugin INSTANCE;
     private DataStorage dataStorage;
+    private StorageMetrics storageMetrics;
+    private DataSaveExecutor dataSaveExecutor;
+    private DataJournal dataJournal;
     private CellManager cellManager;
     private TribeManager tribeManager;
     private MemberManager memberManager;
     private PvpManager pvpManager;
+    private TerritoryMap territoryMap;
     private PluginLogger debugPrinter;
     private MasterConfiguration settings;
+    private boolean snapshotEnabled;
+    private volatile boolean dataComplete;
     private QPlugin qPlugin;
     private HighNoonPlugin highNoonPlugin;
     private Economy economy;
@@ -74,6 +110,18 @@ public class TribesPlugin extends FacePlugin {
         return dataStorage;
     }
 
+    public StorageMetrics getStorageMetrics() {
+        return storageMetrics;
+    }
+
+    public DataSaveExecutor getDataSaveExecutor() {
+        return dataSaveExecutor;
+    }
+
+    public DataJournal getDataJournal() {
+        return dataJournal;
+    }
+
     @Override
     public void enable() {
         INSTANCE = this;
@@ -95,15 +143,34 @@ public class TribesPlugin extends FacePlugin {
 
         settings = MasterConfiguration.loadFromFiles(configYAML, dbYAML);
 
-        dataStorage = new SqliteDataStorage(this);
+        storageMetrics = new StorageMetrics();
+        String storageType = settings.getString("db.type");
+        boolean sharedStorage = "mysql".equalsIgnoreCase(storageType) || "mariadb".equalsIgnoreCase(storageType);
+        if (sharedStorage) {
+            dataStorage = new MeteredDataStorage(new MysqlDataStorage(this), storageMetrics);
+        } else {
+            dataStorage = new MeteredDataStorage(new SqliteDataStorage(this), storageMetrics);
+        }
+        // other servers can write to a shared database while this one is down, which no local file would show
+        snapshotEnabled = settings.getBoolean("db.snapshot-enabled") && !sharedStorage;
+        if (sharedStorage && settings.getBoolean("db.snapshot-enabled")) {
+            getPluginLogger().log(Level.INFO, "snapshots only work with sqlite, loading from " + storageType);
+        }
+        // created up front so it is published over JMX along with the storage operations
+        storageMetrics.get("snapshot");
+        storageMetrics.registerMBeans(getPluginLogger());
         dataStorage.initialize();
+        dataSaveExecutor = new DataSaveExecutor(dataStorage, getPluginLogger());
+        dataSaveExecutor.setHighWaterMark(settings.getInt("db.queue-high-water"));
+        if (settings.getBoolean("db.journal-enabled")) {
+            dataJournal = new DataJournal(new File(getDataFolder(), "db/journal"), getPluginLogger());
+            dataSaveExecutor.setDataJournal(dataJournal);
+        }
 
-        cellManager = new CellManager();
-        memberManager = new MemberManager();
-        tribeManager = new TribeManager();
         pvpManager = new PvpManager();
 
         loadData();
+        territoryMap = new TerritoryMap(cellManager, tribeManager);
 
         CommandHandler commandHandler = new CommandHandler(this);
         commandHandler.registerCommands(new TribeCommand(this));
@@ -111,6 +178,14 @@ public class TribesPlugin extends FacePlugin {
         commandHandler.registerCommands(new GCommand(this));
 
         getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
+        if (cellManager.isLazy()) {
+            setLoadExecutors(cellManager);
+            RegionListener regionListener = new RegionListener(this);
+            for (World world : getServer().getWorlds()) {
+                regionListener.loadWorld(world);
+            }
+            getServer().getPluginManager().registerEvents(regionListener, this);
+        }
 
         qPlugin = (QPlugin) getServer().getPluginManager().getPlugin("Q");
         highNoonPlugin = (HighNoonPlugin) getServer().getPluginManager().getPlugin("HighNoon");
@@ -122,16 +197,32 @@ public class TribesPlugin extends FacePlugin {
 
         new DataSaveTask(this).runTaskTimer(this, 0L, 20L * 600);
         new DataCleanTask(this).runTaskTimer(this, 0L, 20L * 600);
+        long compactInterval = 20L * 3600 * settings.getInt("db.compact-interval-hours");
+        if (compactInterval > 0) {
+            new DataCompactTask(this).runTaskTimer(this, compactInterval, compactInterval);
+        }
     }
 
     @Override
     public void disable() {
         HandlerList.unregisterAll(this);
         getServer().getScheduler().cancelTasks(this);
-        getDataStorage().saveTribes(getTribeManager().getTribes());
-        getDataStorage().saveCells(getCellManager().getCells());
-        getDataStorage().saveMembers(getMemberManager().getMembers());
-        dataStorage.shutdown();
+        new DataSaveTask(this, true).run();
+        boolean saved = dataSaveExecutor.shutdown(30, TimeUnit.SECONDS);
+        if (dataJournal != null) {
+            dataJournal.close();
+        }
+        if (saved || dataSaveExecutor.isIdle()) {
+            dataStorage.shutdown();
+        } else {
+            // closing the pool would pull it out from under the write still in progress
+            getPluginLogger().log(Level.WARNING, "storage is still busy, leaving its connections open");
+        }
+        storageMetrics.unregisterMBeans();
+        // only mirror what actually made it into storage, and never a partial set of cells
+        if (saved && snapshotEnabled && !cellManager.isLazy()) {
+            writeSnapshot();
+        }
     }
 
     public void debug(String... messages) {
@@ -141,39 +232,310 @@ public class TribesPlugin extends FacePlugin {
     }
 
     private void loadData() {
-        for (Cell cell : dataStorage.loadCells()) {
-            cellManager.placeCell(cell.getLocation(), cell);
-        }
-        for (Member member : dataStorage.loadMembers()) {
-            if (memberManager.hasMember(member)) {
-                memberManager.removeMember(member);
+        long start = System.nanoTime();
+        final DataSnapshot snapshot = readSnapshot();
+        final boolean lazyCells = settings.getBoolean("db.lazy-cells");
+        // each manager is built by its own worker and only handed to the main thread once complete
+        final long[] timings = new long[3];
+        int threads = Math.max(1, Math.min(3, dataStorage.getParallelism()));
+        ExecutorService loaders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Tribes Loader");
+                thread.setDaemon(true);
+                return thread;
             }
-            memberManager.addMember(member);
-        }
-        for (Tribe tribe : dataStorage.loadTribes()) {
-            if (tribeManager.hasTribe(tribe)) {
-                tribeManager.removeTribe(tribe);
+        });
+        Future<CellManager> cellFuture = loaders.submit(new Callable<CellManager>() {
+            @Override
+            public CellManager call() {
+                long phase = System.nanoTime();
+                final CellManager manager = new CellManager();
+                if (lazyCells) {
+                    loadClaimIndex(manager);
+                } else {
+                    DataVisitor<Cell> visitor = new DataVisitor<Cell>() {
+                        @Override
+                        public void visit(Cell cell) {
+                            manager.placeCell(cell.getLocation(), cell);
+                        }
+                    };
+                    if (snapshot != null) {
+                        visitAll(snapshot.getCells(), visitor);
+                    } else if (!dataStorage.forEachCell(visitor)) {
+                        throw new IllegalStateException("unable to load cells");
+                    }
+                }
+                // everything was just read from storage, so nothing needs to be written back yet
+                manager.clearDirty();
+                timings[0] = System.nanoTime() - phase;
+                return manager;
             }
-            tribeManager.addTribe(tribe);
+        });
+        Future<MemberManager> memberFuture = loaders.submit(new Callable<MemberManager>() {
+            @Override
+            public MemberManager call() {
+                long phase = System.nanoTime();
+                final MemberManager manager = new MemberManager();
+                DataVisitor<Member> visitor = new DataVisitor<Member>() {
+                    @Override
+                    public void visit(Member member) {
+                        if (manager.hasMember(member)) {
+                            manager.removeMember(member);
+                        }
+                        manager.addMember(member);
+                    }
+                };
+                if (snapshot != null) {
+                    visitAll(snapshot.getMembers(), visitor);
+                } else if (!dataStorage.forEachMember(visitor)) {
+                    throw new IllegalStateException("unable to load members");
+                }
+                manager.clearDirty();
+                timings[1] = System.nanoTime() - phase;
+                return manager;
+            }
+        });
+        Future<TribeManager> tribeFuture = loaders.submit(new Callable<TribeManager>() {
+            @Override
+            public TribeManager call() {
+                long phase = System.nanoTime();
+                final TribeManager manager = new TribeManager();
+                DataVisitor<Tribe> visitor = new DataVisitor<Tribe>() {
+                    @Override
+                    public void visit(Tribe tribe) {
+                        if (manager.hasTribe(tribe)) {
+                            manager.removeTribe(tribe);
+                        }
+                        manager.addTribe(tribe);
+                    }
+                };
+                if (snapshot != null) {
+                    visitAll(snapshot.getTribes(), visitor);
+                } else if (!dataStorage.forEachTribe(visitor)) {
+                    throw new IllegalStateException("unable to load tribes");
+                }
+                manager.clearDirty();
+                timings[2] = System.nanoTime() - phase;
+                return manager;
+            }
+        });
+        loaders.shutdown();
+        CellManager loadedCells;
+        MemberManager loadedMembers;
+        TribeManager loadedTribes;
+        try {
+            loadedCells = cellFuture.get();
+            loadedMembers = memberFuture.get();
+            loadedTribes = tribeFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while loading data", e);
+        } catch (ExecutionException e) {
+            // the other loaders' work is thrown away with the failed start
+            loaders.shutdownNow();
+            throw new IllegalStateException("unable to load data", e.getCause());
         }
-        debug("cells loaded: " + cellManager.getCells().size(),
-                "members loaded: " + memberManager.getMembers().size(),
-                "tribes loaded: " + tribeManager.getTribes().size());
+        // only published once every one of them loaded completely
+        cellManager = loadedCells;
+        memberManager = loadedMembers;
+        tribeManager = loadedTribes;
+
+        long phase = System.nanoTime();
+        replayJournal();
+        long journalTime = System.nanoTime() - phase;
+
+        phase = System.nanoTime();
         for (Member member : memberManager.getMembers()) {
             if (member.getTribe() == null) {
                 continue;
             }
             Optional<Tribe> tribeOptional = tribeManager.getTribe(member.getTribe());
             if (tribeOptional.isPresent()) {
-                Tribe tribe = tribeOptional.get();
                 tribeOptional.get().setRank(member.getUniqueId(), member.getRank());
-                getTribeManager().removeTribe(tribe);
-                getTribeManager().addTribe(tribe);
             } else {
                 member.setRank(Tribe.Rank.GUEST);
                 member.setTribe(null);
             }
         }
+        long reconcileTime = System.nanoTime() - phase;
+        dataComplete = true;
+
+        debug("cells loaded: " + cellManager.getCells().size(),
+                "members loaded: " + memberManager.getMembers().size(),
+                "tribes loaded: " + tribeManager.getTribes().size());
+        getPluginLogger().log(Level.INFO, String.format("loaded data in %dms (cells %dms, members %dms, " +
+                        "tribes %dms, journal %dms, ranks %dms)", millis(System.nanoTime() - start),
+                millis(timings[0]), millis(timings[1]), millis(timings[2]), millis(journalTime),
+                millis(reconcileTime)));
+    }
+
+    private static <T> void visitAll(Iterable<T> rows, DataVisitor<T> visitor) {
+        for (T row : rows) {
+            visitor.visit(row);
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private void loadClaimIndex(CellManager cellManager) {
+        Map<Vec2, Map<UUID, Integer>> claims = dataStorage.loadRegionClaims();
+        if (claims == null) {
+            // every region missing from the index would be open to claiming over what is stored
+            throw new IllegalStateException("unable to load region claims");
+        }
+        for (Map.Entry<Vec2, Map<UUID, Integer>> region : claims.entrySet()) {
+            for (Map.Entry<UUID, Integer> owner : region.getValue().entrySet()) {
+                cellManager.addRegionClaims(region.getKey(), owner.getKey(), owner.getValue());
+            }
+        }
+        cellManager.setRegionLoader(new RegionLoader() {
+            @Override
+            public Collection<Cell> loadRegion(Vec2 region) {
+                int size = 1 << ClaimIndex.REGION_SHIFT;
+                int minX = region.getX() << ClaimIndex.REGION_SHIFT;
+                int minZ = region.getZ() << ClaimIndex.REGION_SHIFT;
+                return dataStorage.loadCells(region.getWorld(), minX, minZ, minX + size - 1, minZ + size - 1);
+            }
+        });
+    }
+
+    private void setLoadExecutors(CellManager cellManager) {
+        // regions are read on the storage thread, behind any writes already queued for them
+        cellManager.setLoadExecutors(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (!dataSaveExecutor.runAfterWrites(command)) {
+                    debug("storage is shutting down, not loading region");
+                }
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // a load finishing during shutdown has nowhere to go
+                if (isEnabled()) {
+                    getServer().getScheduler().runTask(TribesPlugin.this, command);
+                }
+            }
+        });
+    }
+
+    private File getSnapshotFile() {
+        return new File(getDataFolder(), "db/tribes.snapshot");
+    }
+
+    private DataSnapshot readSnapshot() {
+        File file = getSnapshotFile();
+        if (!file.exists()) {
+            return null;
+        }
+        DataSnapshot snapshot = null;
+        if (!snapshotEnabled) {
+            debug("snapshots are disabled, loading from storage");
+        } else if (file.lastModified() < Math.max(new File(getDataFolder(), "db/tribes.db").lastModified(),
+                new File(getDataFolder(), "db/tribes.db-wal").lastModified())) {
+            debug("snapshot is older than the database, loading from storage");
+        } else {
+            snapshot = SnapshotFile.read(file, getPluginLogger());
+        }
+        // a snapshot is only good for the start right after it was written
+        if (!file.delete()) {
+            getPluginLogger().log(Level.WARNING, "unable to delete " + file.getName());
+        }
+        if (snapshot != null) {
+            debug("loaded from snapshot");
+        }
+        return snapshot;
+    }
+
+    private void writeSnapshot() {
+        try {
+            SnapshotFile.write(getSnapshotFile(), cellManager.getCells(), memberManager.getMembers(),
+                    tribeManager.getTribes());
+        } catch (IOException e) {
+            getPluginLogger().log(Level.WARNING, "unable to write snapshot: " + e.getMessage());
+        }
+    }
+
+    private void replayJournal() {
+        if (dataJournal == null) {
+            return;
+        }
+        // replayed changes stay dirty so the first save folds them into the database
+        DataSnapshot replayed = dataJournal.replay();
+        for (Vec2 vec2 : replayed.getRemovedCells()) {
+            cellManager.placeCell(vec2, null);
+        }
+        for (UUID uuid : replayed.getRemovedMembers()) {
+            if (memberManager.hasMember(uuid)) {
+                memberManager.removeMember(uuid);
+            }
+        }
+        for (UUID uuid : replayed.getRemovedTribes()) {
+            tribeManager.removeTribe(uuid);
+        }
+        for (Cell cell : replayed.getCells()) {
+            cellManager.placeCell(cell.getLocation(), cell);
+        }
+        for (Member member : replayed.getMembers()) {
+            if (memberManager.hasMember(member)) {
+                memberManager.removeMember(member);
+            }
+            memberManager.addMember(member);
+        }
+        for (Tribe tribe : replayed.getTribes()) {
+            if (tribeManager.hasTribe(tribe)) {
+                tribeManager.removeTribe(tribe);
+            }
+            tribeManager.addTribe(tribe);
+        }
+        debug("journal entries replayed: " + replayed.size());
+        try {
+            dataJournal.open();
+        } catch (IOException e) {
+            getPluginLogger().log(Level.SEVERE, "unable to open journal: " + e.getMessage());
+            dataJournal = null;
+            dataSaveExecutor.setDataJournal(null);
+            return;
+        }
+        cellManager.setChangeObserver(new ChangeListener<Cell>() {
+            @Override
+            public void onChange(Cell changed) {
+                dataJournal.append(changed);
+            }
+        });
+        memberManager.setChangeObserver(new ChangeListener<Member>() {
+            @Override
+            public void onChange(Member changed) {
+                dataJournal.append(changed);
+            }
+        });
+        tribeManager.setChangeObserver(new ChangeListener<Tribe>() {
+            @Override
+            public void onChange(Tribe changed) {
+                dataJournal.append(changed);
+            }
+        });
+        cellManager.setRemovalObserver(new RemovalListener<Vec2>() {
+            @Override
+            public void onRemove(Vec2 key) {
+                dataJournal.appendRemoval(key);
+            }
+        });
+        memberManager.setRemovalObserver(new RemovalListener<UUID>() {
+            @Override
+            public void onRemove(UUID key) {
+                dataJournal.appendMemberRemoval(key);
+            }
+        });
+        tribeManager.setRemovalObserver(new RemovalListener<UUID>() {
+            @Override
+            public void onRemove(UUID key) {
+                dataJournal.appendTribeRemoval(key);
+            }
+        });
     }
 
     public TribeManager getTribeManager() {
@@ -188,6 +550,15 @@ public class TribesPlugin extends FacePlugin {
         return memberManager;
     }
 
+    /**
+     * Tells whether every cell, member and tribe was loaded, so that anything missing from the managers is really
+     * gone rather than just unread. Lazily loaded cells count as loaded, as their claims are.
+     * @return true once loading finished without errors
+     */
+    public boolean isDataComplete() {
+        return dataComplete;
+    }
+
     public MasterConfiguration getSettings() {
         return settings;
     }
@@ -196,6 +567,10 @@ public class TribesPlugin extends FacePlugin {
         return pvpManager;
     }
 
+    public TerritoryMap getTerritoryMap() {
+        return territoryMap;
+    }
+
     public QPlugin getQPlugin() {
         return qPlugin;
     }
@@ -30,8 +30,12 @@ import com.tealcube.minecraft.bukkit.tribes.TribesPlugin;
 import com.tealcube.minecraft.bukkit.tribes.data.Cell;
 import com.tealcube.minecraft.bukkit.tribes.data.Member;
 import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.managers.CellManager;
 import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
 import com.tealcube.minecraft.bukkit.tribes.math.Vec3f;
+import com.tealcube.minecraft.bukkit.tribes.storage.DataSnapshot;
+import com.tealcube.minecraft.bukkit.tribes.storage.OperationMetrics;
+import com.tealcube.minecraft.bukkit.tribes.tasks.DataBackupTask;
 import com.tealcube.minecraft.bukkit.tribes.utils.Formatter;
 import com.tealcube.minecraft.bukkit.tribes.utils.ScoreboardUtils;
 import info.faceland.q.actions.options.Option;
@@ -79,7 +83,7 @@ public class TribeCommand {
                     {"%tribe%", tribe.isValidated() ? tribe.getName() : "a non validated guild"}
             });
             int cap = tribe.getLevel().getChunks();
-            int numOfCells = plugin.getCellManager().getCellsWithOwner(tribe.getUniqueId()).size();
+            int numOfCells = plugin.getCellManager().countCellsWithOwner(tribe.getUniqueId());
             MessageUtils.sendMessage(player, "<gray>Claimed <white>%amount%<gray>/<white>%cap%<gray> " +
                     "chunks", new String[][]{{"%amount%", numOfCells + ""}, {"%cap%", cap + ""}});
             for (Tribe.Permission permission : Tribe.Permission.values()) {
@@ -170,19 +174,23 @@ public class TribeCommand {
         }
         Chunk chunk = player.getLocation().getChunk();
         Vec2 vec2 = Vec2.fromChunk(chunk);
+        Tribe tribe = plugin.getTribeManager().getTribe(member.getTribe()).get();
+        if (!plugin.getCellManager().isLoaded(vec2) || !plugin.getCellManager().areClaimsLoaded(tribe.getUniqueId())) {
+            sendLoading(player);
+            return;
+        }
         Cell cell = plugin.getCellManager().getCell(vec2).or(new Cell(vec2));
         if (cell.getOwner() != null) {
             MessageUtils.sendMessage(player, "<red>This chunk has already been claimed.");
             return;
         }
-        Tribe tribe = plugin.getTribeManager().getTribe(member.getTribe()).get();
         if (!tribe.isValidated()) {
             MessageUtils.sendMessage(player, "<red>You must validate your guild with <white>/guild validate<red> "
                     + "first.");
             return;
         }
         int cap = tribe.getLevel().getChunks();
-        int numOfCells = plugin.getCellManager().getCellsWithOwner(tribe.getUniqueId()).size();
+        int numOfCells = plugin.getCellManager().countCellsWithOwner(tribe.getUniqueId());
         if (numOfCells >= cap) {
             MessageUtils.sendMessage(player, "<red>You have reached the maximum number of claims for your guild size.");
             return;
@@ -191,18 +199,10 @@ public class TribeCommand {
             MessageUtils.sendMessage(player, "<red>Only guild leaders can claim land.");
             return;
         }
-        if (numOfCells > 0) {
-            Cell northCell = plugin.getCellManager().getCell(vec2.add(1, 0)).or(new Cell(vec2.add(1, 0)));
-            Cell westCell = plugin.getCellManager().getCell(vec2.add(0, 1)).or(new Cell(vec2.add(0, 1)));
-            Cell southCell = plugin.getCellManager().getCell(vec2.add(-1, 0)).or(new Cell(vec2.add(-1, 0)));
-            Cell eastCell = plugin.getCellManager().getCell(vec2.add(0, -1)).or(new Cell(vec2.add(0, -1)));
-            if (!tribe.getUniqueId().equals(northCell.getOwner()) && !tribe.getUniqueId().equals(westCell.getOwner())
-                    && !tribe.getUniqueId().equals(southCell.getOwner()) && !tribe.getUniqueId().equals(eastCell
-                    .getOwner())) {
-                MessageUtils.sendMessage(player, "<red>The chunk you're claiming must be adjacent to an existing "
-                        + "claim.");
-                return;
-            }
+        if (numOfCells > 0 && !plugin.getCellManager().isAdjacentTo(tribe.getUniqueId(), vec2)) {
+            MessageUtils.sendMessage(player, "<red>The chunk you're claiming must be adjacent to an existing "
+                    + "claim.");
+            return;
         }
         cell.setOwner(tribe.getUniqueId());
         plugin.getCellManager().placeCell(vec2, cell);
@@ -229,6 +229,10 @@ public class TribeCommand {
             MessageUtils.sendMessage(player, "<red>Only guild leaders can unclaim land.");
             return;
         }
+        if (!plugin.getCellManager().areClaimsLoaded(tribe.getUniqueId())) {
+            sendLoading(player);
+            return;
+        }
         for (Cell cell : plugin.getCellManager().getCellsWithOwner(tribe.getUniqueId())) {
             cell.setOwner(null);
             plugin.getCellManager().placeCell(cell.getLocation(), cell);
@@ -236,6 +240,59 @@ public class TribeCommand {
         MessageUtils.sendMessage(player, "<green>You unclaimed all of your guilds' land!");
     }
 
+    @Command(identifier = "guild unclaim here", onlyPlayers = true, permissions = "tribes.command.claim")
+    public void unclaimHereSubcommand(Player player) {
+        Member member = plugin.getMemberManager().getMember(player.getUniqueId()).or(new Member(player.getUniqueId()));
+        if (!plugin.getMemberManager().hasMember(member)) {
+            plugin.getMemberManager().addMember(member);
+        }
+        if (member.getTribe() == null || !plugin.getTribeManager().getTribe(member.getTribe()).isPresent()) {
+            MessageUtils.sendMessage(player, "<red>You cannot unclaim if you're not in a guild.");
+            return;
+        }
+        Tribe tribe = plugin.getTribeManager().getTribe(member.getTribe()).get();
+        if (!tribe.isValidated()) {
+            MessageUtils.sendMessage(player, "<red>You must validate your guild with <white>/guild validate<red> "
+                    + "first.");
+            return;
+        }
+        if (member.getRank() != Tribe.Rank.LEADER || tribe.getRank(member.getUniqueId()) != Tribe.Rank.LEADER) {
+            MessageUtils.sendMessage(player, "<red>Only guild leaders can unclaim land.");
+            return;
+        }
+        CellManager cellManager = plugin.getCellManager();
+        Vec2 vec2 = Vec2.fromChunk(player.getLocation().getChunk());
+        if (!cellManager.isLoaded(vec2) || !cellManager.areClaimsLoaded(tribe.getUniqueId())) {
+            sendLoading(player);
+            return;
+        }
+        Optional<Cell> cell = cellManager.getCell(vec2);
+        if (!cell.isPresent() || !tribe.getUniqueId().equals(cell.get().getOwner())) {
+            MessageUtils.sendMessage(player, "<red>This chunk doesn't belong to your guild.");
+            return;
+        }
+        if (cellManager.wouldSplitTerritory(vec2)) {
+            MessageUtils.sendMessage(player, "<red>You can't unclaim this chunk, it would cut your guild's land in "
+                    + "two.");
+            return;
+        }
+        cell.get().setOwner(null);
+        cellManager.placeCell(vec2, cell.get());
+        MessageUtils.sendMessage(player, "<green>You unclaimed this chunk!");
+    }
+
+    @Command(identifier = "guild map", onlyPlayers = true, permissions = "tribes.command.map")
+    public void mapSubcommand(Player player) {
+        Optional<Member> member = plugin.getMemberManager().getMember(player.getUniqueId());
+        UUID tribe = member.isPresent() ? member.get().getTribe() : null;
+        Location location = player.getLocation();
+        Vec2 center = Vec2.fromCoordinates(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        MessageUtils.sendMessage(player, "<green><====||====|<white> Guild Map <green>|====||====>");
+        for (String line : plugin.getTerritoryMap().render(center, tribe)) {
+            MessageUtils.sendMessage(player, line);
+        }
+    }
+
     @Command(identifier = "guild validate", onlyPlayers = false, permissions = "tribes.command.validate")
     public void validateSubcommand(CommandSender sender, @Arg(name = "guild", def = "") String tribeName) {
         Tribe tribe;
@@ -410,6 +467,12 @@ public class TribeCommand {
             MessageUtils.sendMessage(sender, "<red>You must kick all players from your guild before leaving yourself.");
             return;
         }
+        // the last one out releases the guild's land, all of which has to be in memory for that
+        if (plugin.getMemberManager().getMembersWithTribe(tribe.getUniqueId()).size() <= 1 &&
+                !plugin.getCellManager().areClaimsLoaded(tribe.getUniqueId())) {
+            sendLoading(sender);
+            return;
+        }
         member.setTribe(null);
         member.setRank(Tribe.Rank.GUEST);
         tribe.setRank(member.getUniqueId(), Tribe.Rank.GUEST);
@@ -428,17 +491,78 @@ public class TribeCommand {
     }
 
     @Command(identifier = "guild top", onlyPlayers = false, permissions = "tribes.command.top")
-    public void topSubcommand(CommandSender sender) {
-        List<Member> topMembers = plugin.getDataStorage().loadMembers();
+    public void topSubcommand(final CommandSender sender, @Arg(name = "page", def = "1") int page) {
+        final int offset = (Math.max(1, page) - 1) * 10;
+        // write unsaved scores first so the query sees them, then rank on the storage thread
+        queueDirtyMembers();
+        boolean queued = plugin.getDataSaveExecutor().runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                final List<Member> topMembers = plugin.getDataStorage().loadTopMembers(offset, 10);
+                Bukkit.getScheduler().runTask(plugin, new Runnable() {
+                    @Override
+                    public void run() {
+                        sendTopMembers(sender, topMembers, offset);
+                    }
+                });
+            }
+        });
+        if (!queued) {
+            MessageUtils.sendMessage(sender, "<red>Storage is shutting down, try again later.");
+        }
+    }
+
+    private void queueDirtyMembers() {
+        if (plugin.getDataSaveExecutor().isOverloaded()) {
+            // the ranking may lag behind a little until the next save
+            return;
+        }
+        // just the members, cells and tribes don't affect the ranking and wait for the regular save
+        DataSnapshot snapshot = new DataSnapshot();
+        for (Member member : plugin.getMemberManager().takeDirtyMembers()) {
+            snapshot.addMember(member.copy());
+        }
+        for (UUID uuid : plugin.getMemberManager().takeRemovedMembers()) {
+            snapshot.removeMember(uuid);
+        }
+        plugin.getDataSaveExecutor().submit(snapshot);
+    }
+
+    private static void sendLoading(CommandSender sender) {
+        // the regions were asked for and usually arrive within a tick or two
+        MessageUtils.sendMessage(sender, "<red>This land is still loading, try again in a moment.");
+    }
+
+    private void sendTopMembers(CommandSender sender, List<Member> topMembers, int offset) {
         MessageUtils.sendMessage(sender, "<green><====||====| <white>PvP Rankings <green>|====||====>");
-        for (int i = 0; i < Math.min(10, topMembers.size()); i++) {
+        for (int i = 0; i < topMembers.size(); i++) {
             Member m = topMembers.get(i);
             MessageUtils.sendMessage(sender, "<gray>%num%. <white>%player%<gray> : <white>%score%<gray> Might",
-                    new String[][]{{"%num%", (i + 1) + ""}, {"%player%", Bukkit.getOfflinePlayer(m.getUniqueId())
-                            .getName()}, {"%score%", m.getScore() + ""}});
+                    new String[][]{{"%num%", (offset + i + 1) + ""}, {"%player%", Bukkit.getOfflinePlayer(m
+                            .getUniqueId()).getName()}, {"%score%", m.getScore() + ""}});
         }
     }
 
+    @Command(identifier = "guild admin metrics", onlyPlayers = false, permissions = "tribes.command.admin")
+    public void adminMetricsSubcommand(CommandSender sender) {
+        MessageUtils.sendMessage(sender, "<green><====||====| <white>Storage Metrics <green>|====||====>");
+        for (OperationMetrics metrics : plugin.getStorageMetrics().getOperations()) {
+            if (metrics.getCalls() == 0) {
+                continue;
+            }
+            MessageUtils.sendMessage(sender, String.format("<white>%s<gray>: %d calls, %d errors, %d rows, " +
+                            "p50 %.1fms, p99 %.1fms, max %.1fms, %.0f rows/s", metrics.getName(), metrics.getCalls(),
+                    metrics.getErrors(), metrics.getRows(), metrics.getP50Millis(), metrics.getP99Millis(),
+                    metrics.getMaxMillis(), metrics.getRowsPerSecond()));
+        }
+    }
+
+    @Command(identifier = "guild admin backup", onlyPlayers = false, permissions = "tribes.command.admin")
+    public void adminBackupSubcommand(CommandSender sender) {
+        MessageUtils.sendMessage(sender, "<green>Backing up the database...");
+        new DataBackupTask(plugin, sender).run();
+    }
+
     @Command(identifier = "guild kick", onlyPlayers = true, permissions = "tribes.command.kick")
     public void banishSubcommand(Player sender, @Arg(name = "target") String name) {
         OfflinePlayer target = Bukkit.getOfflinePlayer(name);
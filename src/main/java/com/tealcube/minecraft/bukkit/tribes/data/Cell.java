@@ -25,6 +25,7 @@ package com.tealcube.minecraft.bukkit.tribes.data;
 import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
 import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
 
+import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -34,6 +35,7 @@ public final class Cell {
 
     private final Vec2 location;
     private UUID owner;
+    private ChangeListener<Cell> changeListener;
 
     /**
      * Constructs a new Cell based on a given Vec2.
@@ -75,7 +77,29 @@ public final class Cell {
      * @param owner owner of this Cell
      */
     public void setOwner(UUID owner) {
+        if (Objects.equals(this.owner, owner)) {
+            return;
+        }
         this.owner = owner;
+        if (changeListener != null) {
+            changeListener.onChange(this);
+        }
+    }
+
+    /**
+     * Sets the listener that is notified whenever this Cell changes.
+     * @param changeListener listener to notify, or null to stop notifying
+     */
+    public void setChangeListener(ChangeListener<Cell> changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Creates a copy of this Cell that is not attached to any listener.
+     * @return detached copy of this Cell
+     */
+    public Cell copy() {
+        return new Cell(location, owner);
     }
 
     @Override
@@ -22,6 +22,7 @@
  */
 package com.tealcube.minecraft.bukkit.tribes.data;
 
+import java.util.Objects;
 import java.util.UUID;
 
 public final class Member {
@@ -31,6 +32,7 @@ public final class Member {
     private int score = 100;
     private Tribe.Rank rank = Tribe.Rank.GUEST;
     private PvpState pvpState = PvpState.OFF;
+    private ChangeListener<Member> changeListener;
 
     public Member(UUID uuid) {
         this.uniqueId = uuid;
@@ -41,7 +43,11 @@ public final class Member {
     }
 
     public void setPvpState(PvpState pvpState) {
+        if (this.pvpState == pvpState) {
+            return;
+        }
         this.pvpState = pvpState;
+        changed();
     }
 
     public UUID getUniqueId() {
@@ -53,7 +59,11 @@ public final class Member {
     }
 
     public void setTribe(UUID tribe) {
+        if (Objects.equals(this.tribe, tribe)) {
+            return;
+        }
         this.tribe = tribe;
+        changed();
     }
 
     public int getScore() {
@@ -61,7 +71,11 @@ public final class Member {
     }
 
     public void setScore(int score) {
+        if (this.score == score) {
+            return;
+        }
         this.score = score;
+        changed();
     }
 
     public Tribe.Rank getRank() {
@@ -69,7 +83,30 @@ public final class Member {
     }
 
     public void setRank(Tribe.Rank rank) {
+        if (this.rank == rank) {
+            return;
+        }
         this.rank = rank;
+        changed();
+    }
+
+    public void setChangeListener(ChangeListener<Member> changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    public Member copy() {
+        Member member = new Member(uniqueId);
+        member.tribe = tribe;
+        member.score = score;
+        member.rank = rank;
+        member.pvpState = pvpState;
+        return member;
+    }
+
+    private void changed() {
+        if (changeListener != null) {
+            changeListener.onChange(this);
+        }
     }
 
     public enum PvpState {
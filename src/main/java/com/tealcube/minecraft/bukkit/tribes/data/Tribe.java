@@ -31,6 +31,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,6 +46,7 @@ public final class Tribe {
     private boolean validated;
     private Level level;
     private Vec3f home;
+    private ChangeListener<Tribe> changeListener;
 
     public Tribe(UUID uniqueId) {
         this.uniqueId = uniqueId;
@@ -62,7 +64,11 @@ public final class Tribe {
     }
 
     public void setOwner(UUID owner) {
+        if (Objects.equals(this.owner, owner)) {
+            return;
+        }
         this.owner = owner;
+        changed();
     }
 
     public Rank getRank(UUID uuid) {
@@ -110,7 +116,11 @@ public final class Tribe {
     }
 
     public void setName(String name) {
+        if (Objects.equals(this.name, name)) {
+            return;
+        }
         this.name = name;
+        changed();
     }
 
     public boolean isValidated() {
@@ -118,7 +128,11 @@ public final class Tribe {
     }
 
     public void setValidated(boolean validated) {
+        if (this.validated == validated) {
+            return;
+        }
         this.validated = validated;
+        changed();
     }
 
     public Level getLevel() {
@@ -126,7 +140,11 @@ public final class Tribe {
     }
 
     public void setLevel(Level level) {
+        if (this.level == level) {
+            return;
+        }
         this.level = level;
+        changed();
     }
 
     public Vec3f getHome() {
@@ -134,7 +152,33 @@ public final class Tribe {
     }
 
     public void setHome(Vec3f home) {
+        if (Objects.equals(this.home, home)) {
+            return;
+        }
         this.home = home;
+        changed();
+    }
+
+    public void setChangeListener(ChangeListener<Tribe> changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    public Tribe copy() {
+        Tribe tribe = new Tribe(uniqueId);
+        tribe.owner = owner;
+        tribe.name = name;
+        tribe.memberRankMap.putAll(memberRankMap);
+        tribe.claimedLandMap.putAll(claimedLandMap);
+        tribe.validated = validated;
+        tribe.level = level;
+        tribe.home = home;
+        return tribe;
+    }
+
+    private void changed() {
+        if (changeListener != null) {
+            changeListener.onChange(this);
+        }
     }
 
     public enum Permission {
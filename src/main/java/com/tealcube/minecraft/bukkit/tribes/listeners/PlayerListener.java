@@ -29,15 +29,14 @@ import com.tealcube.minecraft.bukkit.highnoon.managers.DuelistManager;
 import com.tealcube.minecraft.bukkit.shade.google.common.base.Objects;
 import com.tealcube.minecraft.bukkit.shade.google.common.base.Optional;
 import com.tealcube.minecraft.bukkit.tribes.TribesPlugin;
-import com.tealcube.minecraft.bukkit.tribes.data.Cell;
 import com.tealcube.minecraft.bukkit.tribes.data.Member;
 import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
 import com.tealcube.minecraft.bukkit.tribes.managers.PvpManager;
-import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
 import com.tealcube.minecraft.bukkit.tribes.utils.ScoreboardUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
+import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Projectile;
 import org.bukkit.event.EventHandler;
@@ -52,6 +51,8 @@ import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
+import java.util.UUID;
+
 public class PlayerListener implements Listener {
 
     private final TribesPlugin plugin;
@@ -119,18 +120,15 @@ public class PlayerListener implements Listener {
                 .getBlockZ() && from.getWorld().equals(to.getWorld())) {
             return;
         }
-        Vec2 toVec = Vec2.fromChunk(to.getChunk());
-        Vec2 fromVec = Vec2.fromChunk(from.getChunk());
-        Cell toCell = plugin.getCellManager().getCell(toVec).or(new Cell(toVec));
-        Cell fromCell = plugin.getCellManager().getCell(fromVec).or(new Cell(fromVec));
-        if (Objects.equal(toCell, fromCell) || Objects.equal(toCell.getOwner(), fromCell.getOwner())) {
+        UUID toOwner = getOwner(to);
+        if (Objects.equal(toOwner, getOwner(from))) {
             return;
         }
-        if (toCell.getOwner() == null) {
+        if (toOwner == null) {
             MessageUtils.sendMessage(event.getPlayer(), "<gray>You have left guild territory.");
             return;
         }
-        Optional<Tribe> tribeOptional = plugin.getTribeManager().getTribe(toCell.getOwner());
+        Optional<Tribe> tribeOptional = plugin.getTribeManager().getTribe(toOwner);
         if (!tribeOptional.isPresent()) {
             return;
         }
@@ -179,15 +177,11 @@ public class PlayerListener implements Listener {
                 event.setDamage(0);
                 return;
             }
-            Optional<Cell> cellOptional = plugin.getCellManager().getCell(Vec2.fromChunk(damaged.getLocation().getChunk()));
-            if (!cellOptional.isPresent()) {
-                return;
-            }
-            Cell cell = cellOptional.get();
-            if (cell.getOwner() == null) {
+            UUID owner = getOwner(damaged.getLocation());
+            if (owner == null) {
                 return;
             }
-            if (damagedMember.getTribe().equals(cell.getOwner())) {
+            if (damagedMember.getTribe().equals(owner)) {
                 MessageUtils.sendMessage(damager, "<red>You can't damage a player on their home turf!");
                 event.setCancelled(true);
                 event.setDamage(0);
@@ -201,15 +195,11 @@ public class PlayerListener implements Listener {
                 event.setDamage(0);
                 return;
             }
-            Optional<Cell> cellOptional = plugin.getCellManager().getCell(Vec2.fromChunk(damager.getLocation().getChunk()));
-            if (!cellOptional.isPresent()) {
-                return;
-            }
-            Cell cell = cellOptional.get();
-            if (cell.getOwner() == null) {
+            UUID owner = getOwner(damager.getLocation());
+            if (owner == null) {
                 return;
             }
-            if (damagerMember.getTribe().equals(cell.getOwner())) {
+            if (damagerMember.getTribe().equals(owner)) {
                 MessageUtils.sendMessage(damager, "<red>You can't damage a player on their home turf!");
                 event.setCancelled(true);
                 event.setDamage(0);
@@ -286,16 +276,15 @@ public class PlayerListener implements Listener {
         if (event.isCancelled()) {
             return;
         }
-        Vec2 vec = Vec2.fromChunk(event.getBlockPlaced().getChunk());
-        Cell cell = plugin.getCellManager().getCell(vec).or(new Cell(vec));
+        UUID owner = getOwner(event.getBlockPlaced());
         Member member = plugin.getMemberManager().getMember(event.getPlayer().getUniqueId()).or(new Member(event.getPlayer().getUniqueId()));
         if (!plugin.getMemberManager().hasMember(member)) {
             plugin.getMemberManager().addMember(member);
         }
-        if (cell.getOwner() == null) {
+        if (owner == null) {
             return;
         }
-        if (!Objects.equal(cell.getOwner(), member.getTribe())) {
+        if (!Objects.equal(owner, member.getTribe())) {
             event.setCancelled(true);
             event.setBuild(false);
             return;
@@ -313,16 +302,15 @@ public class PlayerListener implements Listener {
         if (event.isCancelled()) {
             return;
         }
-        Vec2 vec = Vec2.fromChunk(event.getBlock().getChunk());
-        Cell cell = plugin.getCellManager().getCell(vec).or(new Cell(vec));
+        UUID owner = getOwner(event.getBlock());
         Member member = plugin.getMemberManager().getMember(event.getPlayer().getUniqueId()).or(new Member(event.getPlayer().getUniqueId()));
         if (!plugin.getMemberManager().hasMember(member)) {
             plugin.getMemberManager().addMember(member);
         }
-        if (cell.getOwner() == null) {
+        if (owner == null) {
             return;
         }
-        if (!Objects.equal(cell.getOwner(), member.getTribe())) {
+        if (!Objects.equal(owner, member.getTribe())) {
             event.setCancelled(true);
             return;
         }
@@ -338,16 +326,15 @@ public class PlayerListener implements Listener {
         if (event.isCancelled()) {
             return;
         }
-        Vec2 vec = Vec2.fromChunk(event.getClickedBlock().getChunk());
-        Cell cell = plugin.getCellManager().getCell(vec).or(new Cell(vec));
+        UUID owner = getOwner(event.getClickedBlock());
         Member member = plugin.getMemberManager().getMember(event.getPlayer().getUniqueId()).or(new Member(event.getPlayer().getUniqueId()));
         if (!plugin.getMemberManager().hasMember(member)) {
             plugin.getMemberManager().addMember(member);
         }
-        if (cell.getOwner() == null) {
+        if (owner == null) {
             return;
         }
-        if (!Objects.equal(cell.getOwner(), member.getTribe())) {
+        if (!Objects.equal(owner, member.getTribe())) {
             event.setCancelled(true);
             return;
         }
@@ -358,4 +345,14 @@ public class PlayerListener implements Listener {
         event.setCancelled(true);
     }
 
+    private UUID getOwner(Block block) {
+        return plugin.getCellManager().getOwner(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    private UUID getOwner(Location location) {
+        // block coordinates shifted down rather than getChunk(), which would load the chunk
+        return plugin.getCellManager().getOwner(location.getWorld(), location.getBlockX() >> 4,
+                location.getBlockZ() >> 4);
+    }
+
 }
@@ -0,0 +1,110 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.listeners;
+
+import com.tealcube.minecraft.bukkit.tribes.TribesPlugin;
+import com.tealcube.minecraft.bukkit.tribes.managers.ClaimIndex;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps the regions of loaded chunks in memory when cells are loaded lazily, by counting the loaded chunks of every
+ * region.
+ */
+public class RegionListener implements Listener {
+
+    private final TribesPlugin plugin;
+    private final Map<Vec2, Integer> loadedChunks;
+
+    public RegionListener(TribesPlugin plugin) {
+        this.plugin = plugin;
+        this.loadedChunks = new HashMap<>();
+    }
+
+    /**
+     * Counts chunks that were already loaded before this listener was registered.
+     * @param world world to scan
+     */
+    public void loadWorld(World world) {
+        for (Chunk chunk : world.getLoadedChunks()) {
+            chunkLoaded(chunk);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        chunkLoaded(event.getChunk());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Vec2 chunk = Vec2.fromChunk(event.getChunk());
+        Vec2 region = ClaimIndex.regionOf(chunk);
+        Integer count = loadedChunks.get(region);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            loadedChunks.put(region, count - 1);
+            return;
+        }
+        loadedChunks.remove(region);
+        plugin.getCellManager().unloadRegion(chunk);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        Iterator<Vec2> iterator = loadedChunks.keySet().iterator();
+        while (iterator.hasNext()) {
+            Vec2 region = iterator.next();
+            if (!region.getWorld().equals(event.getWorld())) {
+                continue;
+            }
+            iterator.remove();
+            plugin.getCellManager().unloadRegion(Vec2.fromCoordinates(region.getWorld(),
+                    region.getX() << ClaimIndex.REGION_SHIFT, region.getZ() << ClaimIndex.REGION_SHIFT));
+        }
+    }
+
+    private void chunkLoaded(Chunk chunk) {
+        Vec2 vec2 = Vec2.fromChunk(chunk);
+        Vec2 region = ClaimIndex.regionOf(vec2);
+        Integer count = loadedChunks.get(region);
+        loadedChunks.put(region, count != null ? count + 1 : 1);
+        if (count == null) {
+            plugin.getCellManager().loadRegion(vec2);
+        }
+    }
+
+}
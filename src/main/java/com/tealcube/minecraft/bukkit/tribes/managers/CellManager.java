@@ -24,50 +24,976 @@ package com.tealcube.minecraft.bukkit.tribes.managers;
 
 import com.tealcube.minecraft.bukkit.shade.google.common.base.Optional;
 import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.data.ChangeListener;
+import com.tealcube.minecraft.bukkit.tribes.data.RemovalListener;
 import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
 import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import org.bukkit.World;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
+/**
+ * Holds every Cell in memory, keyed by world and chunk coordinates.
+ * <p>
+ * The main thread is the only one allowed to change cells or to load regions. {@link #getOwner(World, int, int)}
+ * outside of lazy mode and {@link #getCells()} never lock and are safe to call from any thread, e.g. from async
+ * save, cleanup or map jobs.
+ */
 public class CellManager {
 
-    private final Map<Vec2, Cell> cellMap;
+    /**
+     * Owner of a claimed chunk whose region is still being read from storage in lazy mode. It matches no tribe, so
+     * the chunk counts as someone else's land until its real owner is known.
+     */
+    public static final UUID UNKNOWN_OWNER = new UUID(0L, 0L);
+
+    private final Map<UUID, ChunkTable> chunkTables;
+    private final OwnerPalette palette;
+    private final Map<UUID, Set<Vec2>> ownedChunks;
+    private final Set<Vec2> dirtyCells;
+    private final Set<Vec2> removedCells;
+    private final ChangeListener<Cell> changeListener;
+    private final ClaimIndex claimIndex;
+    private final Set<Vec2> residentRegions;
+    private final Set<Vec2> idleRegions;
+    private final Set<Vec2> loadingRegions;
+    private ChangeListener<Cell> changeObserver;
+    private RemovalListener<Vec2> removalObserver;
+    private volatile RegionLoader regionLoader;
+    private Executor loadExecutor;
+    private Executor mainExecutor;
+    private volatile int version;
+    private volatile CellsView cellsView;
 
     public CellManager() {
-        this.cellMap = new HashMap<>();
+        this.chunkTables = new ConcurrentHashMap<>();
+        this.palette = new OwnerPalette();
+        this.ownedChunks = new HashMap<>();
+        this.dirtyCells = Collections.newSetFromMap(new ConcurrentHashMap<Vec2, Boolean>());
+        this.removedCells = Collections.newSetFromMap(new ConcurrentHashMap<Vec2, Boolean>());
+        this.claimIndex = new ClaimIndex();
+        this.residentRegions = new HashSet<>();
+        this.idleRegions = new HashSet<>();
+        this.loadingRegions = new HashSet<>();
+        this.changeListener = new ChangeListener<Cell>() {
+            @Override
+            public void onChange(Cell changed) {
+                dirtyCells.add(changed.getLocation());
+                index(changed.getLocation(), changed.getOwner());
+                if (changeObserver != null) {
+                    changeObserver.onChange(changed);
+                }
+            }
+        };
     }
 
+    /**
+     * Gets the Cell of a chunk. In lazy mode a chunk whose region is still loading reads as absent, see {@link
+     * #isLoaded(Vec2)}.
+     * @param vec2 chunk location
+     * @return cell in memory
+     */
     public Optional<Cell> getCell(Vec2 vec2) {
         Preconditions.checkNotNull(vec2, "vec2 cannot be null");
-        return !cellMap.containsKey(vec2) ? Optional.<Cell>absent() : Optional.of(cellMap.get(vec2));
+        ensureResident(vec2);
+        return Optional.fromNullable(lookup(vec2));
     }
 
+    /**
+     * Gets the owner of a chunk without allocating anything, for hot paths such as movement and block events. Safe
+     * to call from any thread unless the manager is lazy, as the region may have to be loaded first.
+     * <p>
+     * Chunks in regions without claims are answered by a bitmap of claimed regions before anything else is looked at,
+     * even in lazy mode. The rest are a single look into the owners of their region.
+     * @param world world of the chunk
+     * @param chunkX chunk x, i.e. block x {@code >> 4}
+     * @param chunkZ chunk z, i.e. block z {@code >> 4}
+     * @return owning tribe, {@link #UNKNOWN_OWNER} while the claimed region is loading, or null if the chunk is
+     * unclaimed
+     */
+    public UUID getOwner(World world, int chunkX, int chunkZ) {
+        Preconditions.checkNotNull(world, "world cannot be null");
+        ChunkTable table = chunkTables.get(world.getUID());
+        if (table == null || !table.claimedRegions.mightContain(
+                LongObjectMap.key(chunkX >> ClaimIndex.REGION_SHIFT, chunkZ >> ClaimIndex.REGION_SHIFT))) {
+            return null;
+        }
+        if (regionLoader != null && !ensureRegionResident(Vec2.fromCoordinates(world,
+                chunkX >> ClaimIndex.REGION_SHIFT, chunkZ >> ClaimIndex.REGION_SHIFT))) {
+            // claimed somewhere in the region, but not known where until it arrives
+            return UNKNOWN_OWNER;
+        }
+        return table.owners.get(chunkX, chunkZ);
+    }
+
+    /**
+     * Stores a Cell, or removes it if {@code cell} is null. In lazy mode the region must be loaded, see {@link
+     * #isLoaded(Vec2)}.
+     * @param vec2 chunk location
+     * @param cell cell to store, or null
+     * @throws IllegalStateException if the region is still loading
+     */
     public void placeCell(Vec2 vec2, Cell cell) {
         Preconditions.checkNotNull(vec2, "vec2 cannot be null");
+        // the stored claims would be counted twice once they arrive
+        Preconditions.checkState(ensureResident(vec2), "region is still loading");
+        Cell previous;
         if (cell == null) {
-            cellMap.remove(vec2);
+            previous = discard(vec2);
+            index(vec2, null);
+            dirtyCells.remove(vec2);
+            if (previous != null) {
+                removedCells.add(vec2);
+                if (removalObserver != null) {
+                    removalObserver.onRemove(vec2);
+                }
+            }
         } else {
-            cellMap.put(vec2, cell);
+            previous = store(vec2, cell);
+            cell.setChangeListener(changeListener);
+            index(vec2, cell.getOwner());
+            dirtyCells.add(vec2);
+            removedCells.remove(vec2);
+            if (changeObserver != null) {
+                changeObserver.onChange(cell);
+            }
+        }
+        if (previous != null && previous != cell) {
+            previous.setChangeListener(null);
         }
     }
 
+    /**
+     * Returns an immutable snapshot of every Cell in memory. The snapshot is shared and only rebuilt after cells have
+     * been added or removed, so repeated calls are cheap. Safe to call from any thread.
+     * @return cells in memory
+     */
     public Set<Cell> getCells() {
-        return new HashSet<>(cellMap.values());
+        CellsView view = cellsView;
+        while (view == null || view.version != version) {
+            int current = version;
+            Set<Cell> cells = new HashSet<>();
+            for (ChunkTable table : chunkTables.values()) {
+                cells.addAll(table.cells.values());
+            }
+            view = new CellsView(current, Collections.unmodifiableSet(cells));
+            if (current == version) {
+                // only publish a view nothing changed under while it was built
+                cellsView = view;
+                break;
+            }
+        }
+        return view.cells;
     }
 
+    /**
+     * Returns every cell claimed by {@code owner}, read from a reverse index rather than by scanning all cells. In lazy
+     * mode only the cells of loaded regions are returned, see {@link #areClaimsLoaded(UUID)}.
+     * @param owner owning tribe
+     * @return claimed cells
+     */
     public Set<Cell> getCellsWithOwner(UUID owner) {
         Preconditions.checkNotNull(owner);
+        ensureClaimsResident(owner);
         Set<Cell> cells = new HashSet<>();
-        for (Cell cell : getCells()) {
-            if (cell.getOwner() != null && cell.getOwner().equals(owner)) {
+        Set<Vec2> chunks = ownedChunks.get(owner);
+        if (chunks == null) {
+            return cells;
+        }
+        for (Vec2 chunk : chunks) {
+            cells.add(lookup(chunk));
+        }
+        return cells;
+    }
+
+    /**
+     * Returns every claimed Cell inside a box of chunks. Safe to call from any thread unless the manager is lazy, in
+     * which case the claimed regions inside the box are loaded first, and those still loading are left out.
+     * @param world world to look in
+     * @param minX smallest chunk x, inclusive
+     * @param minZ smallest chunk z, inclusive
+     * @param maxX largest chunk x, inclusive
+     * @param maxZ largest chunk z, inclusive
+     * @return claimed cells in no particular order
+     */
+    public List<Cell> getCellsInBox(World world, int minX, int minZ, int maxX, int maxZ) {
+        Preconditions.checkNotNull(world, "world cannot be null");
+        final List<Cell> cells = new ArrayList<>();
+        final ChunkTable table = chunkTables.get(world.getUID());
+        if (table == null) {
+            return cells;
+        }
+        loadRegions(table, minX, minZ, maxX, maxZ);
+        table.owners.forEachOwned(minX, minZ, maxX, maxZ, new RegionTiles.OwnedChunkVisitor() {
+            @Override
+            public void visit(int x, int z, UUID owner) {
+                addCell(cells, table, x, z);
+            }
+        });
+        return cells;
+    }
+
+    /**
+     * Returns every claimed Cell whose distance from {@code center}, in chunks, is at most {@code radius}.
+     * @param center chunk to measure from
+     * @param radius maximum distance in chunks
+     * @return claimed cells in no particular order
+     * @see #getCellsInBox(World, int, int, int, int)
+     */
+    public List<Cell> getCellsInRadius(Vec2 center, int radius) {
+        Preconditions.checkNotNull(center, "center cannot be null");
+        Preconditions.checkArgument(radius >= 0, "radius cannot be negative");
+        final List<Cell> cells = new ArrayList<>();
+        final ChunkTable table = chunkTables.get(center.getWorld().getUID());
+        if (table == null) {
+            return cells;
+        }
+        final int centerX = center.getX();
+        final int centerZ = center.getZ();
+        final long radiusSquared = (long) radius * radius;
+        int minX = centerX - radius;
+        int minZ = centerZ - radius;
+        int maxX = centerX + radius;
+        int maxZ = centerZ + radius;
+        loadRegions(table, minX, minZ, maxX, maxZ);
+        table.owners.forEachOwned(minX, minZ, maxX, maxZ, new RegionTiles.OwnedChunkVisitor() {
+            @Override
+            public void visit(int x, int z, UUID owner) {
+                if (distanceSquared(x - centerX, z - centerZ) <= radiusSquared) {
+                    addCell(cells, table, x, z);
+                }
+            }
+        });
+        return cells;
+    }
+
+    /**
+     * Returns the claimed cells closest to {@code center}.
+     * @param center chunk to measure from
+     * @param count maximum number of cells to return
+     * @return up to {@code count} claimed cells, closest first
+     * @see #getNearestCells(Vec2, int, UUID)
+     */
+    public List<Cell> getNearestCells(Vec2 center, int count) {
+        return getNearestCells(center, count, null);
+    }
+
+    /**
+     * Returns the claimed cells closest to {@code center}, e.g. to find the nearest territory of another tribe. Regions
+     * are searched closest first, ring by ring outward from the region of {@code center}, and the search stops as soon
+     * as no region left can hold anything closer than what was already found. Safe to call from any thread unless the
+     * manager is lazy, in which case regions are loaded as they are searched, and those still loading are left out.
+     * Their claims still end the search like found cells would once they arrive, at the farthest chunk of their
+     * region, so no region is loaded that couldn't beat them.
+     * @param center chunk to measure from
+     * @param count maximum number of cells to return
+     * @param ignoredOwner owner whose cells are skipped, or null
+     * @return up to {@code count} claimed cells, closest first
+     */
+    public List<Cell> getNearestCells(Vec2 center, final int count, final UUID ignoredOwner) {
+        Preconditions.checkNotNull(center, "center cannot be null");
+        Preconditions.checkArgument(count >= 0, "count cannot be negative");
+        final List<Cell> cells = new ArrayList<>();
+        final ChunkTable table = chunkTables.get(center.getWorld().getUID());
+        if (table == null || count == 0) {
+            return cells;
+        }
+        int minRegionX = table.minRegionX;
+        int minRegionZ = table.minRegionZ;
+        int maxRegionX = table.maxRegionX;
+        int maxRegionZ = table.maxRegionZ;
+        if (minRegionX > maxRegionX || minRegionZ > maxRegionZ) {
+            // nothing was ever claimed in this world
+            return cells;
+        }
+        final int centerX = center.getX();
+        final int centerZ = center.getZ();
+        int centerRegionX = centerX >> ClaimIndex.REGION_SHIFT;
+        int centerRegionZ = centerZ >> ClaimIndex.REGION_SHIFT;
+        int lastRing = Math.max(Math.max(centerRegionX - minRegionX, maxRegionX - centerRegionX),
+                Math.max(centerRegionZ - minRegionZ, maxRegionZ - centerRegionZ));
+        // regions that might have claims, closest first
+        PriorityQueue<Ranked<Long>> regions = new PriorityQueue<>();
+        // farthest of the closest cells found so far on top
+        final PriorityQueue<Ranked<Cell>> nearest = new PriorityQueue<>(count + 1, Collections.reverseOrder());
+        // the same, but also counting the claims of regions that are still loading
+        final PriorityQueue<Long> reach = new PriorityQueue<>(count + 1, Collections.reverseOrder());
+        int ring = 0;
+        while (true) {
+            // a ring is only walked once it could hold a region as close as the closest one queued
+            while (ring <= lastRing && (regions.isEmpty() || ringDistanceSquared(ring) <= regions.peek().distance)) {
+                for (int regionX = Math.max(minRegionX, centerRegionX - ring);
+                     regionX <= Math.min(maxRegionX, centerRegionX + ring); regionX++) {
+                    // every region of the outer columns, only the top and bottom ones of the columns in between
+                    boolean edge = regionX == centerRegionX - ring || regionX == centerRegionX + ring;
+                    int step = edge ? 1 : 2 * ring;
+                    for (int regionZ = centerRegionZ - ring; regionZ <= centerRegionZ + ring; regionZ += step) {
+                        long key = LongObjectMap.key(regionX, regionZ);
+                        if (regionZ >= minRegionZ && regionZ <= maxRegionZ && table.claimedRegions.mightContain(key)) {
+                            regions.add(new Ranked<>(regionDistanceSquared(regionX, regionZ, centerX, centerZ), key));
+                        }
+                    }
+                }
+                ring++;
+            }
+            Ranked<Long> region = regions.poll();
+            if (region == null || reach.size() == count && region.distance > reach.peek()) {
+                break;
+            }
+            int regionX = LongObjectMap.keyX(region.value);
+            int regionZ = LongObjectMap.keyZ(region.value);
+            if (regionLoader != null) {
+                // only ever reached while the region could still improve on what was found
+                Vec2 regionVec = Vec2.fromCoordinates(table.world, regionX, regionZ);
+                if (!ensureRegionResident(regionVec)) {
+                    long farthest = farthestDistanceSquared(regionX, regionZ, centerX, centerZ);
+                    int claims = Math.min(count, claimIndex.getClaimCount(regionVec, ignoredOwner));
+                    for (int i = 0; i < claims; i++) {
+                        addDistance(reach, farthest, count);
+                    }
+                    continue;
+                }
+            }
+            int minX = regionX << ClaimIndex.REGION_SHIFT;
+            int minZ = regionZ << ClaimIndex.REGION_SHIFT;
+            int maxX = minX + (1 << ClaimIndex.REGION_SHIFT) - 1;
+            int maxZ = minZ + (1 << ClaimIndex.REGION_SHIFT) - 1;
+            table.owners.forEachOwned(minX, minZ, maxX, maxZ, new RegionTiles.OwnedChunkVisitor() {
+                @Override
+                public void visit(int x, int z, UUID owner) {
+                    if (owner.equals(ignoredOwner)) {
+                        return;
+                    }
+                    long distance = distanceSquared(x - centerX, z - centerZ);
+                    if (nearest.size() == count && distance >= nearest.peek().distance) {
+                        return;
+                    }
+                    Cell cell = table.cells.get(LongObjectMap.key(x, z));
+                    if (cell != null) {
+                        nearest.add(new Ranked<>(distance, cell));
+                        if (nearest.size() > count) {
+                            nearest.poll();
+                        }
+                        addDistance(reach, distance, count);
+                    }
+                }
+            });
+        }
+        List<Ranked<Cell>> ranked = new ArrayList<>(nearest);
+        Collections.sort(ranked);
+        for (Ranked<Cell> cell : ranked) {
+            cells.add(cell.value);
+        }
+        return cells;
+    }
+
+    /**
+     * Gets a number that changes whenever the owner of a chunk in the region changes, for caches built from a region's
+     * claims. In lazy mode the region is loaded first, and its version changes again once it arrives.
+     * @param world world of the region
+     * @param regionX region x, i.e. chunk x {@code >>} {@link ClaimIndex#REGION_SHIFT}
+     * @param regionZ region z, i.e. chunk z {@code >>} {@link ClaimIndex#REGION_SHIFT}
+     * @return version of the region
+     */
+    public int getRegionVersion(World world, int regionX, int regionZ) {
+        Preconditions.checkNotNull(world, "world cannot be null");
+        ChunkTable table = chunkTables.get(world.getUID());
+        if (table == null) {
+            return 0;
+        }
+        int minX = regionX << ClaimIndex.REGION_SHIFT;
+        int minZ = regionZ << ClaimIndex.REGION_SHIFT;
+        loadRegions(table, minX, minZ, minX, minZ);
+        return table.owners.getVersion(regionX, regionZ);
+    }
+
+    /**
+     * Checks whether a chunk shares an edge with a chunk claimed by {@code owner}.
+     * @param owner owning tribe
+     * @param chunk chunk to check
+     * @return true if one of the four chunks next to {@code chunk} is claimed by {@code owner}
+     */
+    public boolean isAdjacentTo(UUID owner, Vec2 chunk) {
+        Preconditions.checkNotNull(owner, "owner cannot be null");
+        Preconditions.checkNotNull(chunk, "chunk cannot be null");
+        World world = chunk.getWorld();
+        int x = chunk.getX();
+        int z = chunk.getZ();
+        return owner.equals(getOwner(world, x + 1, z)) || owner.equals(getOwner(world, x, z + 1))
+                || owner.equals(getOwner(world, x - 1, z)) || owner.equals(getOwner(world, x, z - 1));
+    }
+
+    /**
+     * Checks whether unclaiming a chunk would split the territory it belongs to into parts that no longer share an
+     * edge. Mostly answered from the eight chunks around it, otherwise by a search of bounded size.
+     * @param chunk claimed chunk
+     * @return true if unclaiming {@code chunk} would leave its owner's land disconnected, or if that can't be told
+     * because some of its owner's regions are still loading or the search ran past its limit
+     */
+    public boolean wouldSplitTerritory(Vec2 chunk) {
+        Preconditions.checkNotNull(chunk, "chunk cannot be null");
+        UUID owner = getOwner(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        if (owner == null) {
+            return false;
+        }
+        if (owner.equals(UNKNOWN_OWNER) || !ensureClaimsResident(owner)) {
+            return true;
+        }
+        return table(chunk.getWorld()).territories.wouldSplit(chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Counts the separate territories claimed by {@code owner}, i.e. the groups of claimed chunks that share an edge.
+     * In lazy mode only loaded regions are counted, see {@link #areClaimsLoaded(UUID)}.
+     * @param owner owning tribe
+     * @return number of territories, 0 if nothing is claimed
+     */
+    public int countTerritories(UUID owner) {
+        Preconditions.checkNotNull(owner, "owner cannot be null");
+        ensureClaimsResident(owner);
+        Set<Vec2> chunks = ownedChunks.get(owner);
+        if (chunks == null) {
+            return 0;
+        }
+        Map<World, List<Long>> keys = new HashMap<>();
+        for (Vec2 chunk : chunks) {
+            List<Long> worldKeys = keys.get(chunk.getWorld());
+            if (worldKeys == null) {
+                worldKeys = new ArrayList<>();
+                keys.put(chunk.getWorld(), worldKeys);
+            }
+            worldKeys.add(key(chunk));
+        }
+        int count = 0;
+        for (Map.Entry<World, List<Long>> entry : keys.entrySet()) {
+            long[] worldKeys = new long[entry.getValue().size()];
+            for (int i = 0; i < worldKeys.length; i++) {
+                worldKeys[i] = entry.getValue().get(i);
+            }
+            count += table(entry.getKey()).territories.countTerritories(owner, worldKeys);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of cells claimed by {@code owner}, including cells that are not currently in memory. This is
+     * a lookup in the claim index and doesn't depend on how much land is claimed in total.
+     * @param owner owning tribe
+     * @return number of claimed cells
+     */
+    public int countCellsWithOwner(UUID owner) {
+        Preconditions.checkNotNull(owner);
+        return claimIndex.getClaimCount(owner);
+    }
+
+    public ClaimIndex getClaimIndex() {
+        return claimIndex;
+    }
+
+    /**
+     * Adds {@code count} claims of {@code owner} to a region without loading its cells, e.g. from a summary read out
+     * of storage before switching to lazy mode.
+     * @param region region location
+     * @param owner owning tribe
+     * @param count number of claims, negative to remove
+     */
+    public void addRegionClaims(Vec2 region, UUID owner, int count) {
+        Preconditions.checkNotNull(region, "region cannot be null");
+        claimIndex.addRegionClaims(region, owner, count);
+        ChunkTable table = table(region.getWorld());
+        table.claimedRegions.add(LongObjectMap.key(region.getX(), region.getZ()), count);
+        if (count > 0) {
+            table.includeRegion(region.getX(), region.getZ());
+        }
+    }
+
+    /**
+     * Switches this manager to keeping only active regions in memory. Regions are loaded through {@code
+     * regionLoader} the first time they are touched, and {@link #addRegionClaims(Vec2, UUID, int)} must already have
+     * been told about the claims of every stored cell.
+     * @param regionLoader loader for stored regions, or null to keep every cell in memory
+     */
+    public void setRegionLoader(RegionLoader regionLoader) {
+        this.regionLoader = regionLoader;
+    }
+
+    /**
+     * Moves region loads off the main thread. Until a region arrives its claimed chunks are owned by {@link
+     * #UNKNOWN_OWNER}, and it can't be changed. Without executors regions are loaded on the spot, e.g. while the
+     * journal is replayed on startup.
+     * @param loadExecutor executor that runs the {@link RegionLoader}
+     * @param mainExecutor executor that hands loaded regions back to the main thread
+     */
+    public void setLoadExecutors(Executor loadExecutor, Executor mainExecutor) {
+        Preconditions.checkArgument((loadExecutor == null) == (mainExecutor == null), "both executors or none");
+        this.loadExecutor = loadExecutor;
+        this.mainExecutor = mainExecutor;
+    }
+
+    public boolean isLazy() {
+        return regionLoader != null;
+    }
+
+    /**
+     * Checks whether the region containing {@code chunk} is in memory, and starts loading it if it is not. Always
+     * true outside of lazy mode.
+     * @param chunk any chunk of the region
+     * @return true if the cells of the region can be read and changed
+     */
+    public boolean isLoaded(Vec2 chunk) {
+        Preconditions.checkNotNull(chunk, "chunk cannot be null");
+        return ensureResident(chunk);
+    }
+
+    /**
+     * Checks whether every region with claims of {@code owner} is in memory, and starts loading those that are not.
+     * Always true outside of lazy mode.
+     * @param owner owning tribe
+     * @return true if all of the owner's cells can be read and changed
+     */
+    public boolean areClaimsLoaded(UUID owner) {
+        Preconditions.checkNotNull(owner, "owner cannot be null");
+        return ensureClaimsResident(owner);
+    }
+
+    /**
+     * Makes sure the region containing {@code chunk} is in memory and keeps it there until {@link
+     * #unloadRegion(Vec2)} is called for it.
+     * @param chunk any chunk of the region
+     */
+    public void loadRegion(Vec2 chunk) {
+        Preconditions.checkNotNull(chunk, "chunk cannot be null");
+        if (regionLoader == null) {
+            return;
+        }
+        Vec2 region = ClaimIndex.regionOf(chunk);
+        idleRegions.remove(region);
+        makeResident(region);
+    }
+
+    private boolean makeResident(Vec2 region) {
+        if (residentRegions.contains(region)) {
+            return true;
+        }
+        if (!claimIndex.hasClaims(region)) {
+            residentRegions.add(region);
+            return true;
+        }
+        if (loadExecutor == null) {
+            addLoadedRegion(region, regionLoader.loadRegion(region));
+            return true;
+        }
+        if (loadingRegions.add(region)) {
+            loadExecutor.execute(new RegionLoad(region));
+        }
+        return false;
+    }
+
+    private void addLoadedRegion(Vec2 region, Collection<Cell> loaded) {
+        loadingRegions.remove(region);
+        if (!residentRegions.add(region)) {
+            return;
+        }
+        for (Cell cell : loaded) {
+            if (lookup(cell.getLocation()) != null) {
+                continue;
+            }
+            store(cell.getLocation(), cell);
+            cell.setChangeListener(changeListener);
+            if (cell.getOwner() != null) {
+                // already counted by the claim index
+                Vec2 location = cell.getLocation();
+                ChunkTable table = table(location.getWorld());
+                table.owners.set(location.getX(), location.getZ(), cell.getOwner());
+                own(cell.getOwner(), location);
+            }
+        }
+    }
+
+    /**
+     * Marks the region containing {@code chunk} as no longer in use. It is dropped from memory by the next call to
+     * {@link #evictIdleRegions()} that finds none of its cells waiting to be saved.
+     * @param chunk any chunk of the region
+     */
+    public void unloadRegion(Vec2 chunk) {
+        Preconditions.checkNotNull(chunk, "chunk cannot be null");
+        Vec2 region = ClaimIndex.regionOf(chunk);
+        if (regionLoader != null && (residentRegions.contains(region) || loadingRegions.contains(region))) {
+            idleRegions.add(region);
+        }
+    }
+
+    /**
+     * Drops every idle region without unsaved changes from memory. Must only be called while no save is in flight,
+     * otherwise an evicted region could be read back before its last changes are written.
+     * @return number of regions evicted
+     */
+    public int evictIdleRegions() {
+        if (idleRegions.isEmpty()) {
+            return 0;
+        }
+        Set<Vec2> dirtyRegions = new HashSet<>();
+        for (Vec2 vec2 : dirtyCells) {
+            dirtyRegions.add(ClaimIndex.regionOf(vec2));
+        }
+        // an evicted region is read back from storage, so its removals have to be written first as well
+        for (Vec2 vec2 : removedCells) {
+            dirtyRegions.add(ClaimIndex.regionOf(vec2));
+        }
+        Set<Vec2> evicted = new HashSet<>(idleRegions);
+        evicted.removeAll(dirtyRegions);
+        // still idle once they arrive
+        evicted.removeAll(loadingRegions);
+        if (evicted.isEmpty()) {
+            return 0;
+        }
+        for (ChunkTable table : chunkTables.values()) {
+            for (long key : table.cells.keys()) {
+                Vec2 region = Vec2.fromCoordinates(table.world, LongObjectMap.keyX(key) >> ClaimIndex.REGION_SHIFT,
+                        LongObjectMap.keyZ(key) >> ClaimIndex.REGION_SHIFT);
+                if (evicted.contains(region)) {
+                    Cell cell = table.cells.remove(key);
+                    version++;
+                    cell.setChangeListener(null);
+                    UUID owner = table.owners.set(LongObjectMap.keyX(key), LongObjectMap.keyZ(key), null);
+                    if (owner != null) {
+                        // still claimed in storage, so the region stays marked
+                        disown(owner, cell.getLocation());
+                    }
+                }
+            }
+        }
+        residentRegions.removeAll(evicted);
+        idleRegions.removeAll(evicted);
+        return evicted.size();
+    }
+
+    private boolean ensureResident(Vec2 chunk) {
+        return regionLoader == null || ensureRegionResident(ClaimIndex.regionOf(chunk));
+    }
+
+    private boolean ensureClaimsResident(UUID owner) {
+        boolean resident = true;
+        if (regionLoader != null) {
+            for (Vec2 region : new ArrayList<>(claimIndex.getRegions(owner))) {
+                resident &= ensureRegionResident(region);
+            }
+        }
+        return resident;
+    }
+
+    private boolean ensureRegionResident(Vec2 region) {
+        if (residentRegions.contains(region)) {
+            return true;
+        }
+        if (!loadingRegions.contains(region)) {
+            // nothing keeps it in use, so it may go again
+            idleRegions.add(region);
+        }
+        return makeResident(region);
+    }
+
+    private void loadRegions(ChunkTable table, int minX, int minZ, int maxX, int maxZ) {
+        if (regionLoader == null) {
+            return;
+        }
+        for (int regionX = minX >> ClaimIndex.REGION_SHIFT; regionX <= maxX >> ClaimIndex.REGION_SHIFT; regionX++) {
+            for (int regionZ = minZ >> ClaimIndex.REGION_SHIFT; regionZ <= maxZ >> ClaimIndex.REGION_SHIFT; regionZ++) {
+                if (table.claimedRegions.mightContain(LongObjectMap.key(regionX, regionZ))) {
+                    ensureRegionResident(Vec2.fromCoordinates(table.world, regionX, regionZ));
+                }
+            }
+        }
+    }
+
+    private static void addCell(List<Cell> cells, ChunkTable table, int x, int z) {
+        Cell cell = table.cells.get(LongObjectMap.key(x, z));
+        if (cell != null) {
+            cells.add(cell);
+        }
+    }
+
+    private static long distanceSquared(long dx, long dz) {
+        return dx * dx + dz * dz;
+    }
+
+    /**
+     * Gets the squared distance from a chunk to the closest chunk a region could hold.
+     */
+    private static long regionDistanceSquared(int regionX, int regionZ, int centerX, int centerZ) {
+        long minX = (long) regionX << ClaimIndex.REGION_SHIFT;
+        long minZ = (long) regionZ << ClaimIndex.REGION_SHIFT;
+        int maxOffset = (1 << ClaimIndex.REGION_SHIFT) - 1;
+        return distanceSquared(Math.max(0, Math.max(minX - centerX, centerX - minX - maxOffset)),
+                Math.max(0, Math.max(minZ - centerZ, centerZ - minZ - maxOffset)));
+    }
+
+    /**
+     * Gets the squared distance from a chunk to the farthest chunk of a region.
+     */
+    private static long farthestDistanceSquared(int regionX, int regionZ, int centerX, int centerZ) {
+        long minX = (long) regionX << ClaimIndex.REGION_SHIFT;
+        long minZ = (long) regionZ << ClaimIndex.REGION_SHIFT;
+        int maxOffset = (1 << ClaimIndex.REGION_SHIFT) - 1;
+        return distanceSquared(Math.max(Math.abs(minX - centerX), Math.abs(minX + maxOffset - centerX)),
+                Math.max(Math.abs(minZ - centerZ), Math.abs(minZ + maxOffset - centerZ)));
+    }
+
+    private static void addDistance(PriorityQueue<Long> distances, long distance, int count) {
+        if (distances.size() < count) {
+            distances.add(distance);
+        } else if (distance < distances.peek()) {
+            distances.poll();
+            distances.add(distance);
+        }
+    }
+
+    /**
+     * Gets a lower bound of {@link #regionDistanceSquared(int, int, int, int)} for every region {@code ring} regions
+     * away from the region of the center on either axis.
+     */
+    private static long ringDistanceSquared(int ring) {
+        if (ring == 0) {
+            return 0;
+        }
+        long distance = (((long) ring - 1) << ClaimIndex.REGION_SHIFT) + 1;
+        return distance * distance;
+    }
+
+    private void index(Vec2 vec2, UUID owner) {
+        ChunkTable table = table(vec2.getWorld());
+        UUID previous = table.owners.set(vec2.getX(), vec2.getZ(), owner);
+        if (Objects.equals(owner, previous)) {
+            return;
+        }
+        long region = LongObjectMap.key(vec2.getX() >> ClaimIndex.REGION_SHIFT, vec2.getZ() >> ClaimIndex.REGION_SHIFT);
+        if (previous != null) {
+            claimIndex.removeClaim(vec2, previous);
+            table.claimedRegions.add(region, -1);
+            disown(previous, vec2);
+        }
+        if (owner != null) {
+            claimIndex.addClaim(vec2, owner);
+            table.claimedRegions.add(region, 1);
+            table.includeRegion(vec2.getX() >> ClaimIndex.REGION_SHIFT, vec2.getZ() >> ClaimIndex.REGION_SHIFT);
+            own(owner, vec2);
+        }
+    }
+
+    private void own(UUID owner, Vec2 vec2) {
+        table(vec2.getWorld()).territories.add(vec2.getX(), vec2.getZ(), owner);
+        Set<Vec2> chunks = ownedChunks.get(owner);
+        if (chunks == null) {
+            chunks = new HashSet<>();
+            ownedChunks.put(owner, chunks);
+        }
+        chunks.add(vec2);
+    }
+
+    private void disown(UUID owner, Vec2 vec2) {
+        table(vec2.getWorld()).territories.remove(vec2.getX(), vec2.getZ());
+        Set<Vec2> chunks = ownedChunks.get(owner);
+        if (chunks != null && chunks.remove(vec2) && chunks.isEmpty()) {
+            ownedChunks.remove(owner);
+        }
+    }
+
+    /**
+     * Returns every Cell that changed since the last call and forgets about those changes. Cells that were removed
+     * from this manager are not returned.
+     * @return changed cells
+     */
+    public List<Cell> takeDirtyCells() {
+        List<Cell> cells = new ArrayList<>();
+        for (Vec2 vec2 : new ArrayList<>(dirtyCells)) {
+            dirtyCells.remove(vec2);
+            Cell cell = lookup(vec2);
+            if (cell != null) {
                 cells.add(cell);
             }
         }
         return cells;
     }
 
+    /**
+     * Flags the given cells as changed, e.g. after a failed save.
+     * @param cells cells to flag
+     */
+    public void markDirty(Iterable<Cell> cells) {
+        Preconditions.checkNotNull(cells);
+        for (Cell cell : cells) {
+            dirtyCells.add(cell.getLocation());
+        }
+    }
+
+    /**
+     * Sets a listener that is told about every change to a Cell held by this manager, on top of dirty tracking.
+     * @param changeObserver listener to notify, or null
+     */
+    public void setChangeObserver(ChangeListener<Cell> changeObserver) {
+        this.changeObserver = changeObserver;
+    }
+
+    /**
+     * Returns the location of every Cell that was removed since the last call and forgets about those removals.
+     * @return locations of removed cells
+     */
+    public List<Vec2> takeRemovedCells() {
+        List<Vec2> vec2s = new ArrayList<>();
+        for (Vec2 vec2 : new ArrayList<>(removedCells)) {
+            removedCells.remove(vec2);
+            vec2s.add(vec2);
+        }
+        return vec2s;
+    }
+
+    /**
+     * Sets a listener that is told about every Cell removed from this manager.
+     * @param removalObserver listener to notify, or null
+     */
+    public void setRemovalObserver(RemovalListener<Vec2> removalObserver) {
+        this.removalObserver = removalObserver;
+    }
+
+    /**
+     * Forgets every pending change and removal, e.g. after loading from storage.
+     */
+    public void clearDirty() {
+        dirtyCells.clear();
+        removedCells.clear();
+    }
+
+    private Cell lookup(Vec2 vec2) {
+        ChunkTable table = chunkTables.get(vec2.getWorld().getUID());
+        return table != null ? table.cells.get(key(vec2)) : null;
+    }
+
+    private Cell store(Vec2 vec2, Cell cell) {
+        Cell previous = table(vec2.getWorld()).cells.put(key(vec2), cell);
+        version++;
+        return previous;
+    }
+
+    private Cell discard(Vec2 vec2) {
+        ChunkTable table = chunkTables.get(vec2.getWorld().getUID());
+        Cell previous = table != null ? table.cells.remove(key(vec2)) : null;
+        if (previous != null) {
+            version++;
+        }
+        return previous;
+    }
+
+    private ChunkTable table(World world) {
+        ChunkTable table = chunkTables.get(world.getUID());
+        if (table == null) {
+            table = new ChunkTable(world, palette);
+            chunkTables.put(world.getUID(), table);
+        }
+        return table;
+    }
+
+    private static long key(Vec2 vec2) {
+        return LongObjectMap.key(vec2.getX(), vec2.getZ());
+    }
+
+    /**
+     * Reads a region on the load executor and hands its cells to the main thread.
+     */
+    private final class RegionLoad implements Runnable {
+
+        private final Vec2 region;
+
+        private RegionLoad(Vec2 region) {
+            this.region = region;
+        }
+
+        @Override
+        public void run() {
+            final Collection<Cell> cells = regionLoader.loadRegion(region);
+            mainExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    addLoadedRegion(region, cells);
+                }
+            });
+        }
+
+    }
+
+    private static final class Ranked<T> implements Comparable<Ranked<T>> {
+
+        private final long distance;
+        private final T value;
+
+        private Ranked(long distance, T value) {
+            this.distance = distance;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Ranked<T> other) {
+            return distance < other.distance ? -1 : distance > other.distance ? 1 : 0;
+        }
+
+    }
+
+    private static final class CellsView {
+
+        private final int version;
+        private final Set<Cell> cells;
+
+        private CellsView(int version, Set<Cell> cells) {
+            this.version = version;
+            this.cells = cells;
+        }
+
+    }
+
+    /**
+     * The cells of one world keyed by packed chunk coordinates, and their owners in region tiles.
+     */
+    private static final class ChunkTable {
+
+        private final World world;
+        private final LongObjectMap<Cell> cells;
+        // owner each cell was last counted under in the claim index
+        private final RegionTiles owners;
+        // regions with claims anywhere, chunks are told apart by the tiles of the regions that pass
+        private final ClaimFilter claimedRegions;
+        private final TerritoryGraph territories;
+        // every region ever claimed lies in between, these only grow
+        private volatile int minRegionX = Integer.MAX_VALUE;
+        private volatile int minRegionZ = Integer.MAX_VALUE;
+        private volatile int maxRegionX = Integer.MIN_VALUE;
+        private volatile int maxRegionZ = Integer.MIN_VALUE;
+
+        private ChunkTable(World world, OwnerPalette palette) {
+            this.world = world;
+            this.cells = new LongObjectMap<>();
+            this.owners = new RegionTiles(palette);
+            this.claimedRegions = new ClaimFilter();
+            this.territories = new TerritoryGraph();
+        }
+
+        private void includeRegion(int regionX, int regionZ) {
+            minRegionX = Math.min(minRegionX, regionX);
+            minRegionZ = Math.min(minRegionZ, regionZ);
+            maxRegionX = Math.max(maxRegionX, regionX);
+            maxRegionZ = Math.max(maxRegionZ, regionZ);
+        }
+
+    }
+
 }
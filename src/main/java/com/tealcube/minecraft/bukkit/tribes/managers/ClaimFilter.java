@@ -0,0 +1,79 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counting bitmap over packed coordinates that answers "definitely nothing here" with a multiply, a shift and one
+ * bit test. Coordinates are hashed into a fixed number of buckets, each with a counter and a bit that is set while
+ * the counter is above zero, so a set bit only means something might be there. Meant for region coordinates: with
+ * far more keys than buckets, e.g. one per claimed chunk, nearly every bit ends up set and the filter stops helping.
+ * <p>
+ * Only one thread may add and remove keys, but {@link #mightContain(long)} is safe from any thread.
+ */
+final class ClaimFilter {
+
+    private static final int BUCKET_BITS = 16;
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+    // 8KB of bits stays in cache, the counters are only touched when claims change
+    private final AtomicLongArray bits;
+    private final int[] counts;
+
+    ClaimFilter() {
+        this.bits = new AtomicLongArray((1 << BUCKET_BITS) >> 6);
+        this.counts = new int[1 << BUCKET_BITS];
+    }
+
+    /**
+     * Checks whether {@code key} may have been added.
+     * @param key packed coordinates, see {@link LongObjectMap#key(int, int)}
+     * @return false if {@code key} was definitely never added or has been removed again
+     */
+    boolean mightContain(long key) {
+        int bucket = bucket(key);
+        return (bits.get(bucket >>> 6) & 1L << bucket) != 0;
+    }
+
+    /**
+     * Adds {@code count} to the counter of {@code key}.
+     * @param key packed coordinates
+     * @param count amount to add, negative to remove
+     */
+    void add(long key, int count) {
+        int bucket = bucket(key);
+        int previous = counts[bucket];
+        int updated = previous + count;
+        counts[bucket] = updated;
+        if (previous <= 0 && updated > 0) {
+            bits.set(bucket >>> 6, bits.get(bucket >>> 6) | 1L << bucket);
+        } else if (previous > 0 && updated <= 0) {
+            bits.set(bucket >>> 6, bits.get(bucket >>> 6) & ~(1L << bucket));
+        }
+    }
+
+    private static int bucket(long key) {
+        return (int) ((key * PHI) >>> (64 - BUCKET_BITS));
+    }
+
+}
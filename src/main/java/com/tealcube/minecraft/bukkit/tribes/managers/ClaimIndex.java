@@ -0,0 +1,173 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A small, always resident summary of land claims. It counts claims per tribe and per region, where a region is a
+ * square of {@code 32x32} chunks, so that questions about a tribe's land can be answered without every cell being in
+ * memory.
+ */
+public final class ClaimIndex {
+
+    /**
+     * Number of bits a chunk coordinate is shifted right by to get its region coordinate.
+     */
+    public static final int REGION_SHIFT = 5;
+    private final Map<UUID, Integer> claimCounts;
+    private final Map<Vec2, Map<UUID, Integer>> regionClaims;
+    private final Map<UUID, Set<Vec2>> ownerRegions;
+
+    public ClaimIndex() {
+        this.claimCounts = new HashMap<>();
+        this.regionClaims = new HashMap<>();
+        this.ownerRegions = new HashMap<>();
+    }
+
+    /**
+     * Returns the region that contains the given chunk.
+     * @param chunk chunk location
+     * @return region location
+     */
+    public static Vec2 regionOf(Vec2 chunk) {
+        return Vec2.fromCoordinates(chunk.getWorld(), chunk.getX() >> REGION_SHIFT, chunk.getZ() >> REGION_SHIFT);
+    }
+
+    public void addClaim(Vec2 chunk, UUID owner) {
+        addRegionClaims(regionOf(chunk), owner, 1);
+    }
+
+    public void removeClaim(Vec2 chunk, UUID owner) {
+        addRegionClaims(regionOf(chunk), owner, -1);
+    }
+
+    /**
+     * Adds {@code count} claims of {@code owner} to a region, e.g. from a summary read out of storage.
+     * @param region region location
+     * @param owner owning tribe
+     * @param count number of claims, negative to remove
+     */
+    public void addRegionClaims(Vec2 region, UUID owner, int count) {
+        Preconditions.checkNotNull(region, "region cannot be null");
+        Preconditions.checkNotNull(owner, "owner cannot be null");
+        adjust(claimCounts, owner, count);
+        Map<UUID, Integer> owners = regionClaims.get(region);
+        if (owners == null) {
+            owners = new HashMap<>();
+            regionClaims.put(region, owners);
+        }
+        if (adjust(owners, owner, count) > 0) {
+            Set<Vec2> regions = ownerRegions.get(owner);
+            if (regions == null) {
+                regions = new HashSet<>();
+                ownerRegions.put(owner, regions);
+            }
+            regions.add(region);
+            return;
+        }
+        if (owners.isEmpty()) {
+            regionClaims.remove(region);
+        }
+        Set<Vec2> regions = ownerRegions.get(owner);
+        if (regions != null) {
+            regions.remove(region);
+            if (regions.isEmpty()) {
+                ownerRegions.remove(owner);
+            }
+        }
+    }
+
+    public int getClaimCount(UUID owner) {
+        Integer count = claimCounts.get(owner);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Counts the claims in a region.
+     * @param region region location
+     * @param ignoredOwner owner whose claims are left out, or null
+     * @return number of claims
+     */
+    public int getClaimCount(Vec2 region, UUID ignoredOwner) {
+        Map<UUID, Integer> owners = regionClaims.get(region);
+        if (owners == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Map.Entry<UUID, Integer> owner : owners.entrySet()) {
+            if (!owner.getKey().equals(ignoredOwner)) {
+                count += owner.getValue();
+            }
+        }
+        return count;
+    }
+
+    public boolean hasClaims(Vec2 region) {
+        return regionClaims.containsKey(region);
+    }
+
+    public boolean ownsAnythingIn(UUID owner, Vec2 region) {
+        Map<UUID, Integer> owners = regionClaims.get(region);
+        return owners != null && owners.containsKey(owner);
+    }
+
+    public Set<Vec2> getRegions(UUID owner) {
+        Set<Vec2> regions = ownerRegions.get(owner);
+        return regions != null ? Collections.unmodifiableSet(regions) : Collections.<Vec2>emptySet();
+    }
+
+    /**
+     * Returns every region that holds at least one claim.
+     * @return claimed regions
+     */
+    public Set<Vec2> getClaimedRegions() {
+        return Collections.unmodifiableSet(regionClaims.keySet());
+    }
+
+    public void clear() {
+        claimCounts.clear();
+        regionClaims.clear();
+        ownerRegions.clear();
+    }
+
+    private static int adjust(Map<UUID, Integer> counts, UUID owner, int delta) {
+        Integer current = counts.get(owner);
+        int updated = (current != null ? current : 0) + delta;
+        if (updated > 0) {
+            counts.put(owner, updated);
+        } else {
+            counts.remove(owner);
+        }
+        return updated;
+    }
+
+}
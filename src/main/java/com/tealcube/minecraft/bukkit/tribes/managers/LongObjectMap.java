@@ -0,0 +1,297 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A hash map from primitive {@code long} keys to non-null values, using open addressing with linear probing. Keys
+ * are stored in a flat array, so lookups neither box the key nor allocate, and an entry costs two array slots instead
+ * of a node object.
+ * <p>
+ * The map supports one writing thread and any number of reading threads without locks. Writers publish every slot
+ * and every resized table through volatile writes, and bump a modification stamp around changes that move entries.
+ * Readers that race such a change retry their lookup, so {@link #get(long)} never returns a wrong value.
+ * <p>
+ * Chunk coordinates are packed into keys with {@link #key(int, int)}.
+ * @param <V> type of the values
+ */
+public final class LongObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+    private volatile Table table;
+    private volatile int stamp;
+    private int size;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries to make room for up front
+     */
+    public LongObjectMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < (1 << 30) && capacity / 4 * 3 < expectedSize) {
+            capacity <<= 1;
+        }
+        this.table = new Table(capacity);
+    }
+
+    /**
+     * Packs two ints into a single key, {@code x} in the high and {@code z} in the low half.
+     * @param x chunk x
+     * @param z chunk z
+     * @return packed key
+     */
+    public static long key(int x, int z) {
+        return (long) x << 32 | z & 0xFFFFFFFFL;
+    }
+
+    public static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int keyZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Gets the value of {@code key}. Safe to call from any thread.
+     * @param key key
+     * @return value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        while (true) {
+            int before = stamp;
+            if ((before & 1) == 0) {
+                Object value = table.find(key);
+                if (stamp == before) {
+                    return (V) value;
+                }
+            }
+            // a writer moved entries around underneath us
+            Thread.yield();
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}. Must only be called by the writing thread.
+     * @param key key
+     * @param value value, not null
+     * @return the previous value of {@code key}, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        Preconditions.checkNotNull(value, "value cannot be null");
+        Table current = table;
+        int i = current.slot(key);
+        for (Object existing; (existing = current.values.get(i)) != null; i = (i + 1) & current.mask) {
+            if (current.keys.get(i) == key) {
+                current.values.set(i, value);
+                return (V) existing;
+            }
+        }
+        // the key is written first, so a reader that sees the value also sees its key
+        current.keys.set(i, key);
+        current.values.set(i, value);
+        if (++size > current.resizeAt) {
+            // built off to the side and published in one write, readers never see it half filled
+            table = current.resize(current.capacity() << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the value of {@code key}. Must only be called by the writing thread.
+     * @param key key
+     * @return the removed value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        Table current = table;
+        int i = current.slot(key);
+        for (Object existing; (existing = current.values.get(i)) != null; i = (i + 1) & current.mask) {
+            if (current.keys.get(i) == key) {
+                stamp++;
+                try {
+                    current.closeGap(i);
+                } finally {
+                    stamp++;
+                }
+                size--;
+                return (V) existing;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of entries. Exact on the writing thread, a recent value on any other.
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every entry. Must only be called by the writing thread.
+     */
+    public void clear() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Copies every key into a new array. Must only be called by the writing thread.
+     * @return keys in no particular order
+     */
+    public long[] keys() {
+        Table current = table;
+        long[] copy = new long[size];
+        int index = 0;
+        for (int i = 0; i < current.capacity(); i++) {
+            if (current.values.get(i) != null) {
+                copy[index++] = current.keys.get(i);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Copies every value into a new list. Safe to call from any thread; a copy taken while the writer is changing
+     * the map is retried until it reflects a single state of the map.
+     * @return values in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        while (true) {
+            int before = stamp;
+            if ((before & 1) == 0) {
+                Table current = table;
+                List<V> copy = new ArrayList<>(size);
+                for (int i = 0; i < current.capacity(); i++) {
+                    Object value = current.values.get(i);
+                    if (value != null) {
+                        copy.add((V) value);
+                    }
+                }
+                if (stamp == before && table == current) {
+                    return copy;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    private static final class Table {
+
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<Object> values;
+        private final int mask;
+        private final int shift;
+        private final int resizeAt;
+
+        private Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+            this.resizeAt = capacity / 4 * 3;
+        }
+
+        private int capacity() {
+            return mask + 1;
+        }
+
+        private int slot(long key) {
+            // fibonacci hashing spreads neighbouring chunks over the whole table
+            return (int) ((key * PHI) >>> shift);
+        }
+
+        private Object find(long key) {
+            int i = slot(key);
+            // bounded, a racing writer can't make a reader spin forever
+            for (int probes = 0; probes <= mask; probes++) {
+                Object value = values.get(i);
+                if (value == null) {
+                    return null;
+                }
+                if (keys.get(i) == key) {
+                    return value;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private void closeGap(int gap) {
+            // shift later entries of the same probe run back instead of leaving a tombstone behind
+            for (int i = (gap + 1) & mask; values.get(i) != null; i = (i + 1) & mask) {
+                int home = slot(keys.get(i));
+                boolean stays = gap <= i ? gap < home && home <= i : gap < home || home <= i;
+                if (!stays) {
+                    keys.set(gap, keys.get(i));
+                    values.set(gap, values.get(i));
+                    gap = i;
+                }
+            }
+            values.set(gap, null);
+        }
+
+        private Table resize(int capacity) {
+            Table resized = new Table(capacity);
+            for (int i = 0; i < capacity(); i++) {
+                Object value = values.get(i);
+                if (value == null) {
+                    continue;
+                }
+                long key = keys.get(i);
+                int slot = resized.slot(key);
+                while (resized.values.get(slot) != null) {
+                    slot = (slot + 1) & resized.mask;
+                }
+                resized.keys.set(slot, key);
+                resized.values.set(slot, value);
+            }
+            return resized;
+        }
+
+    }
+
+}
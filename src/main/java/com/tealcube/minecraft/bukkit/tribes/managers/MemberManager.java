@@ -24,9 +24,14 @@ package com.tealcube.minecraft.bukkit.tribes.managers;
 
 import com.google.common.base.Preconditions;
 import com.tealcube.minecraft.bukkit.shade.google.common.base.Optional;
+import com.tealcube.minecraft.bukkit.tribes.data.ChangeListener;
 import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.RemovalListener;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -35,27 +40,53 @@ import java.util.concurrent.ConcurrentHashMap;
 public class MemberManager {
 
     private final Map<UUID, Member> memberMap;
+    private final Set<UUID> dirtyMembers;
+    private final Set<UUID> removedMembers;
+    private final ChangeListener<Member> changeListener;
+    private ChangeListener<Member> changeObserver;
+    private RemovalListener<UUID> removalObserver;
 
     public MemberManager() {
         memberMap = new ConcurrentHashMap<>();
+        dirtyMembers = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+        removedMembers = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+        changeListener = new ChangeListener<Member>() {
+            @Override
+            public void onChange(Member changed) {
+                dirtyMembers.add(changed.getUniqueId());
+                if (changeObserver != null) {
+                    changeObserver.onChange(changed);
+                }
+            }
+        };
     }
 
     public void addMember(Member member) {
         Preconditions.checkNotNull(member);
         Preconditions.checkState(!memberMap.containsKey(member.getUniqueId()));
         memberMap.put(member.getUniqueId(), member);
+        member.setChangeListener(changeListener);
+        dirtyMembers.add(member.getUniqueId());
+        removedMembers.remove(member.getUniqueId());
+        if (changeObserver != null) {
+            changeObserver.onChange(member);
+        }
     }
 
     public void removeMember(Member member) {
         Preconditions.checkNotNull(member);
-        Preconditions.checkState(memberMap.containsKey(member.getUniqueId()));
-        memberMap.remove(member.getUniqueId());
+        removeMember(member.getUniqueId());
     }
 
     public void removeMember(UUID uuid) {
         Preconditions.checkNotNull(uuid);
         Preconditions.checkState(memberMap.containsKey(uuid));
-        memberMap.remove(uuid);
+        memberMap.remove(uuid).setChangeListener(null);
+        dirtyMembers.remove(uuid);
+        removedMembers.add(uuid);
+        if (removalObserver != null) {
+            removalObserver.onRemove(uuid);
+        }
     }
 
     public boolean hasMember(Member member) {
@@ -88,4 +119,69 @@ public class MemberManager {
         return members;
     }
 
+    /**
+     * Returns every Member that changed since the last call and forgets about those changes. Members that were removed
+     * from this manager are not returned.
+     * @return changed members
+     */
+    public List<Member> takeDirtyMembers() {
+        List<Member> members = new ArrayList<>();
+        for (UUID uuid : new ArrayList<>(dirtyMembers)) {
+            dirtyMembers.remove(uuid);
+            Member member = memberMap.get(uuid);
+            if (member != null) {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Flags the given members as changed, e.g. after a failed save.
+     * @param members members to flag
+     */
+    public void markDirty(Iterable<Member> members) {
+        Preconditions.checkNotNull(members);
+        for (Member member : members) {
+            dirtyMembers.add(member.getUniqueId());
+        }
+    }
+
+    /**
+     * Sets a listener that is told about every change to a Member held by this manager, on top of dirty tracking.
+     * @param changeObserver listener to notify, or null
+     */
+    public void setChangeObserver(ChangeListener<Member> changeObserver) {
+        this.changeObserver = changeObserver;
+    }
+
+    /**
+     * Returns the id of every Member that was removed since the last call and forgets about those removals.
+     * @return ids of removed members
+     */
+    public List<UUID> takeRemovedMembers() {
+        List<UUID> uuids = new ArrayList<>();
+        for (UUID uuid : new ArrayList<>(removedMembers)) {
+            removedMembers.remove(uuid);
+            uuids.add(uuid);
+        }
+        return uuids;
+    }
+
+    /**
+     * Sets a listener that is told about every Member removed from this manager.
+     * @param removalObserver listener to notify, or null
+     */
+    public void setRemovalObserver(RemovalListener<UUID> removalObserver) {
+        this.removalObserver = removalObserver;
+    }
+
+    /**
+     * Forgets every pending change and removal, e.g. after loading from storage.
+     */
+    public void clearDirty() {
+        dirtyMembers.clear();
+        removedMembers.clear();
+    }
+
 }
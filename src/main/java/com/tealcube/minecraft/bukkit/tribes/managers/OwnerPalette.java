@@ -0,0 +1,131 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns owner UUIDs as small integers so they can be packed into dense arrays. Ids are reference counted and
+ * reused once nothing refers to them anymore; id 0 always stands for "no owner".
+ * <p>
+ * Only one thread may acquire and release ids, but {@link #get(int)} is safe from any thread. A reader that read an
+ * id somewhere else first can't tell whether the id was freed and handed to another owner in between, so it reads
+ * {@link #getEpoch()} before the id and again after the owner, and reads both again if the epoch moved.
+ */
+final class OwnerPalette {
+
+    private static final int MAX_ID = 0xFFFF;
+    private final Map<UUID, Integer> ids;
+    private final Deque<Integer> freeIds;
+    private volatile AtomicReferenceArray<UUID> owners;
+    private volatile int epoch;
+    private int[] references;
+    private int nextId;
+
+    OwnerPalette() {
+        this.ids = new HashMap<>();
+        this.freeIds = new ArrayDeque<>();
+        this.owners = new AtomicReferenceArray<>(16);
+        this.references = new int[16];
+        // id 0 is reserved for unowned
+        this.nextId = 1;
+    }
+
+    /**
+     * Gets the id of {@code owner} and counts one more reference to it.
+     * @param owner owner to intern, or null
+     * @return id of the owner, 0 for null
+     */
+    int acquire(UUID owner) {
+        if (owner == null) {
+            return 0;
+        }
+        Integer id = ids.get(owner);
+        if (id == null) {
+            if (!freeIds.isEmpty()) {
+                id = freeIds.pollFirst();
+                // before the slot changes, so a reader that sees the new owner also sees the new epoch
+                epoch++;
+            } else {
+                id = nextId++;
+                if (id > MAX_ID) {
+                    throw new IllegalStateException("more than " + MAX_ID + " distinct owners");
+                }
+                grow(id);
+            }
+            owners.set(id, owner);
+            ids.put(owner, id);
+        }
+        references[id]++;
+        return id;
+    }
+
+    /**
+     * Drops one reference to the owner with the given id, freeing the id when it was the last one.
+     * @param id id returned by {@link #acquire(UUID)}
+     */
+    void release(int id) {
+        if (id == 0) {
+            return;
+        }
+        if (--references[id] == 0) {
+            // the slot keeps its owner until the id is handed out again, for readers still holding it
+            ids.remove(owners.get(id));
+            freeIds.addLast(id);
+        }
+    }
+
+    /**
+     * Gets a number that changes whenever a freed id is handed to another owner.
+     * @return current epoch
+     */
+    int getEpoch() {
+        return epoch;
+    }
+
+    UUID get(int id) {
+        AtomicReferenceArray<UUID> current = owners;
+        return id != 0 && id < current.length() ? current.get(id) : null;
+    }
+
+    private void grow(int id) {
+        AtomicReferenceArray<UUID> current = owners;
+        if (id < current.length()) {
+            return;
+        }
+        int length = current.length() << 1;
+        AtomicReferenceArray<UUID> grown = new AtomicReferenceArray<>(length);
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        owners = grown;
+        references = Arrays.copyOf(references, length);
+    }
+
+}
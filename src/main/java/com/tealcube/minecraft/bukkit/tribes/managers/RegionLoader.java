@@ -0,0 +1,43 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+
+import java.util.Collection;
+
+/**
+ * Loads the stored cells of a single region for a {@link CellManager} that keeps only active regions in memory.
+ */
+public interface RegionLoader {
+
+    /**
+     * Loads every stored cell inside a region. Runs on the load executor if the manager has one, see {@link
+     * CellManager#setLoadExecutors(java.util.concurrent.Executor, java.util.concurrent.Executor)}.
+     * @param region region location, see {@link ClaimIndex#regionOf(Vec2)}
+     * @return stored cells of the region
+     */
+    Collection<Cell> loadRegion(Vec2 region);
+
+}
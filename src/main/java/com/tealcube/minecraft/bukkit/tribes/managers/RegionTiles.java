@@ -0,0 +1,213 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The owners of every chunk of one world, stored in tiles of {@code 32x32} chunks that line up with the regions of
+ * {@link ClaimIndex}. Each tile is a single array of interned 16 bit owner ids, two to an int, so looking at a
+ * chunk and its neighbours mostly touches one small array instead of several map entries.
+ * <p>
+ * Only one thread may set owners. {@link #get(int, int)} and {@link #forEachOwned(int, int, int, int,
+ * OwnedChunkVisitor)} are safe from any thread: tiles are published through atomic arrays, like the tables of
+ * {@link LongObjectMap}, and see either the old or the new owner of a chunk that is being changed at the same time.
+ */
+final class RegionTiles {
+
+    private static final int SIZE = 1 << ClaimIndex.REGION_SHIFT;
+    private static final int MASK = SIZE - 1;
+    private final OwnerPalette palette;
+    private final LongObjectMap<Tile> tiles;
+    private int changes;
+
+    RegionTiles(OwnerPalette palette) {
+        this.palette = palette;
+        this.tiles = new LongObjectMap<>();
+    }
+
+    UUID get(int x, int z) {
+        Tile tile = tiles.get(LongObjectMap.key(x >> ClaimIndex.REGION_SHIFT, z >> ClaimIndex.REGION_SHIFT));
+        return tile != null ? getOwner(tile, index(x, z)) : null;
+    }
+
+    /**
+     * Sets the owner of a chunk.
+     * @param x chunk x
+     * @param z chunk z
+     * @param owner new owner, or null to clear
+     * @return previous owner, or null
+     */
+    UUID set(int x, int z, UUID owner) {
+        long key = LongObjectMap.key(x >> ClaimIndex.REGION_SHIFT, z >> ClaimIndex.REGION_SHIFT);
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            if (owner == null) {
+                return null;
+            }
+            tile = new Tile(x >> ClaimIndex.REGION_SHIFT, z >> ClaimIndex.REGION_SHIFT);
+            tiles.put(key, tile);
+        }
+        int index = index(x, z);
+        int previousId = tile.getId(index);
+        UUID previous = palette.get(previousId);
+        if (previous != null && previous.equals(owner)) {
+            return previous;
+        }
+        int id = palette.acquire(owner);
+        tile.setId(index, id);
+        palette.release(previousId);
+        int row = tile.rows.get(z & MASK);
+        tile.rows.set(z & MASK, id != 0 ? row | 1 << (x & MASK) : row & ~(1 << (x & MASK)));
+        tile.claimed += (id != 0 ? 1 : 0) - (previousId != 0 ? 1 : 0);
+        tile.version = ++changes;
+        if (tile.claimed == 0) {
+            tiles.remove(key);
+        }
+        return previous;
+    }
+
+    /**
+     * Calls {@code visitor} for every owned chunk inside a box. Only tiles overlapping the box are looked at, and
+     * within a tile only the chunks that are owned, so the cost follows the number of claims found rather than the
+     * area of the box.
+     * @param minX smallest chunk x, inclusive
+     * @param minZ smallest chunk z, inclusive
+     * @param maxX largest chunk x, inclusive
+     * @param maxZ largest chunk z, inclusive
+     * @param visitor visitor to call
+     */
+    void forEachOwned(int minX, int minZ, int maxX, int maxZ, OwnedChunkVisitor visitor) {
+        if (minX > maxX || minZ > maxZ) {
+            return;
+        }
+        int minRegionX = minX >> ClaimIndex.REGION_SHIFT;
+        int minRegionZ = minZ >> ClaimIndex.REGION_SHIFT;
+        int maxRegionX = maxX >> ClaimIndex.REGION_SHIFT;
+        int maxRegionZ = maxZ >> ClaimIndex.REGION_SHIFT;
+        long regions = (maxRegionX - (long) minRegionX + 1) * (maxRegionZ - (long) minRegionZ + 1);
+        if (regions > tiles.size()) {
+            // a huge box, walking the tiles that exist is cheaper than probing for every region
+            for (Tile tile : tiles.values()) {
+                if (tile.regionX >= minRegionX && tile.regionX <= maxRegionX && tile.regionZ >= minRegionZ &&
+                        tile.regionZ <= maxRegionZ) {
+                    visit(tile, minX, minZ, maxX, maxZ, visitor);
+                }
+            }
+            return;
+        }
+        for (int regionX = minRegionX; regionX <= maxRegionX; regionX++) {
+            for (int regionZ = minRegionZ; regionZ <= maxRegionZ; regionZ++) {
+                Tile tile = tiles.get(LongObjectMap.key(regionX, regionZ));
+                if (tile != null) {
+                    visit(tile, minX, minZ, maxX, maxZ, visitor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a number that changes whenever an owner in the region changes. Versions are never reused, not even after
+     * the region was emptied and claimed again.
+     * @param regionX region x
+     * @param regionZ region z
+     * @return version of the region, 0 if nothing in it is owned
+     */
+    int getVersion(int regionX, int regionZ) {
+        Tile tile = tiles.get(LongObjectMap.key(regionX, regionZ));
+        return tile != null ? tile.version : 0;
+    }
+
+    private void visit(Tile tile, int minX, int minZ, int maxX, int maxZ, OwnedChunkVisitor visitor) {
+        int baseX = tile.regionX << ClaimIndex.REGION_SHIFT;
+        int baseZ = tile.regionZ << ClaimIndex.REGION_SHIFT;
+        int fromX = Math.max(minX, baseX) - baseX;
+        int toX = Math.min(maxX, baseX + MASK) - baseX;
+        int fromZ = Math.max(minZ, baseZ) - baseZ;
+        int toZ = Math.min(maxZ, baseZ + MASK) - baseZ;
+        int width = toX - fromX + 1;
+        int columns = (width == SIZE ? -1 : (1 << width) - 1) << fromX;
+        for (int row = fromZ; row <= toZ; row++) {
+            for (int owned = tile.rows.get(row) & columns; owned != 0; owned &= owned - 1) {
+                int column = Integer.numberOfTrailingZeros(owned);
+                UUID owner = getOwner(tile, row << ClaimIndex.REGION_SHIFT | column);
+                if (owner != null) {
+                    visitor.visit(baseX + column, baseZ + row, owner);
+                }
+            }
+        }
+    }
+
+    private UUID getOwner(Tile tile, int index) {
+        while (true) {
+            int epoch = palette.getEpoch();
+            UUID owner = palette.get(tile.getId(index));
+            // the id may have been freed and handed to another owner after it was read
+            if (palette.getEpoch() == epoch) {
+                return owner;
+            }
+        }
+    }
+
+    private static int index(int x, int z) {
+        return (z & MASK) << ClaimIndex.REGION_SHIFT | x & MASK;
+    }
+
+    /**
+     * Receives the owned chunks found by {@link #forEachOwned(int, int, int, int, OwnedChunkVisitor)}.
+     */
+    interface OwnedChunkVisitor {
+
+        void visit(int x, int z, UUID owner);
+
+    }
+
+    private static final class Tile {
+
+        private final int regionX;
+        private final int regionZ;
+        private final AtomicIntegerArray owners = new AtomicIntegerArray(SIZE * SIZE / 2);
+        // one bit per owned chunk, so scans skip empty rows and columns
+        private final AtomicIntegerArray rows = new AtomicIntegerArray(SIZE);
+        private int claimed;
+        private volatile int version;
+
+        private Tile(int regionX, int regionZ) {
+            this.regionX = regionX;
+            this.regionZ = regionZ;
+        }
+
+        private int getId(int index) {
+            return owners.get(index >> 1) >>> ((index & 1) << 4) & 0xFFFF;
+        }
+
+        private void setId(int index, int id) {
+            int shift = (index & 1) << 4;
+            // only one thread writes, so the other half of the int can't change meanwhile
+            owners.set(index >> 1, owners.get(index >> 1) & ~(0xFFFF << shift) | id << shift);
+        }
+
+    }
+
+}
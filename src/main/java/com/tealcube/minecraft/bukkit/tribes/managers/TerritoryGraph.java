@@ -0,0 +1,312 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tracks how the claimed chunks of one world fall apart into connected territories, where two chunks of the same
+ * owner are connected if they share an edge.
+ * <p>
+ * Claims are merged into a union-find as they are added. A removal is checked against the eight chunks around it,
+ * which settles most cases without looking any further; only a removal that may have split a territory marks its
+ * owner for a rebuild the next time its territories are counted.
+ */
+final class TerritoryGraph {
+
+    // edge neighbours sit at even positions, corners in between, going clockwise from north
+    private static final int[] RING_X = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int[] RING_Z = {-1, -1, 0, 1, 1, 1, 0, -1};
+    // chunks a split check looks at before giving up, a 64x64 block of land
+    static final int SEARCH_LIMIT = 4096;
+    private final LongObjectMap<Node> nodes;
+    private final Map<UUID, Integer> territories;
+    private final Set<UUID> stale;
+
+    TerritoryGraph() {
+        this.nodes = new LongObjectMap<>();
+        this.territories = new HashMap<>();
+        this.stale = new HashSet<>();
+    }
+
+    /**
+     * Adds a claimed chunk. A chunk changing owners has to be removed first.
+     * @param x chunk x
+     * @param z chunk z
+     * @param owner owner of the chunk
+     */
+    void add(int x, int z, UUID owner) {
+        Node node = new Node(owner);
+        nodes.put(LongObjectMap.key(x, z), node);
+        Integer count = territories.get(owner);
+        int updated = (count != null ? count : 0) + 1;
+        for (int i = 0; i < RING_X.length; i += 2) {
+            Node neighbour = nodes.get(LongObjectMap.key(x + RING_X[i], z + RING_Z[i]));
+            if (neighbour != null && neighbour.owner.equals(owner) && union(node, neighbour)) {
+                updated--;
+            }
+        }
+        territories.put(owner, updated);
+    }
+
+    void remove(int x, int z) {
+        Node node = nodes.remove(LongObjectMap.key(x, z));
+        if (node == null) {
+            return;
+        }
+        // nodes still pointing at the removed one keep using it as a link, which stays right until a split
+        int ring = ring(x, z, node.owner);
+        int neighbours = Integer.bitCount(ring & 0x55);
+        if (neighbours == 0) {
+            Integer count = territories.get(node.owner);
+            if (count != null && count > 1) {
+                territories.put(node.owner, count - 1);
+            } else {
+                territories.remove(node.owner);
+            }
+        } else if (neighbours > 1 && !isLocallyConnected(ring)) {
+            stale.add(node.owner);
+        }
+    }
+
+    /**
+     * Counts the territories of {@code owner}, rebuilding its part of the union-find first if a removal may have
+     * split it.
+     * @param owner owner to count for
+     * @param chunks packed coordinates of every chunk of {@code owner} in this world
+     * @return number of connected territories
+     */
+    int countTerritories(UUID owner, long[] chunks) {
+        if (stale.remove(owner)) {
+            for (long key : chunks) {
+                Node node = nodes.get(key);
+                node.parent = node;
+                node.size = 1;
+            }
+            int count = chunks.length;
+            for (long key : chunks) {
+                Node node = nodes.get(key);
+                int x = LongObjectMap.keyX(key);
+                int z = LongObjectMap.keyZ(key);
+                // east and south are enough, every edge is seen once
+                Node east = nodes.get(LongObjectMap.key(x + 1, z));
+                Node south = nodes.get(LongObjectMap.key(x, z + 1));
+                if (east != null && east.owner.equals(owner) && union(node, east)) {
+                    count--;
+                }
+                if (south != null && south.owner.equals(owner) && union(node, south)) {
+                    count--;
+                }
+            }
+            if (count > 0) {
+                territories.put(owner, count);
+            } else {
+                territories.remove(owner);
+            }
+        }
+        Integer count = territories.get(owner);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Checks whether removing a chunk would split the territory it belongs to. Settled by the eight chunks around it
+     * when possible, otherwise by searching outwards from each of its edge neighbours in turn until the searches meet
+     * or one of them runs out of chunks. A search that looks at more than {@link #SEARCH_LIMIT} chunks gives up and
+     * counts as a split, so a huge territory costs a bounded amount of work and is only ever kept whole.
+     * @param x chunk x
+     * @param z chunk z
+     * @return true if the remaining chunks would no longer all be connected, or if that couldn't be settled within
+     * the search limit
+     */
+    boolean wouldSplit(int x, int z) {
+        Node node = nodes.get(LongObjectMap.key(x, z));
+        if (node == null) {
+            return false;
+        }
+        int ring = ring(x, z, node.owner);
+        if (Integer.bitCount(ring & 0x55) <= 1 || isLocallyConnected(ring)) {
+            return false;
+        }
+        long removed = LongObjectMap.key(x, z);
+        int sources = Integer.bitCount(ring & 0x55);
+        // every search keeps its own queue, searches that met share a group
+        long[][] queues = new long[sources][16];
+        int[] heads = new int[sources];
+        int[] tails = new int[sources];
+        int[] groups = new int[sources];
+        LongObjectMap<Integer> visited = new LongObjectMap<>();
+        int source = 0;
+        for (int i = 0; i < RING_X.length; i += 2) {
+            if ((ring & 1 << i) != 0) {
+                long key = LongObjectMap.key(x + RING_X[i], z + RING_Z[i]);
+                queues[source][tails[source]++] = key;
+                groups[source] = source;
+                visited.put(key, source);
+                source++;
+            }
+        }
+        int separate = sources;
+        int steps = 0;
+        while (true) {
+            for (int i = 0; i < sources; i++) {
+                if (heads[i] == tails[i]) {
+                    continue;
+                }
+                if (++steps > SEARCH_LIMIT) {
+                    return true;
+                }
+                long key = queues[i][heads[i]++];
+                int keyX = LongObjectMap.keyX(key);
+                int keyZ = LongObjectMap.keyZ(key);
+                for (int j = 0; j < RING_X.length; j += 2) {
+                    long next = LongObjectMap.key(keyX + RING_X[j], keyZ + RING_Z[j]);
+                    if (next == removed) {
+                        continue;
+                    }
+                    Integer seenBy = visited.get(next);
+                    if (seenBy != null) {
+                        int from = groups[seenBy];
+                        int to = groups[i];
+                        if (from != to) {
+                            for (int k = 0; k < sources; k++) {
+                                if (groups[k] == from) {
+                                    groups[k] = to;
+                                }
+                            }
+                            if (--separate == 1) {
+                                return false;
+                            }
+                        }
+                        continue;
+                    }
+                    Node neighbour = nodes.get(next);
+                    if (neighbour == null || !neighbour.owner.equals(node.owner)) {
+                        continue;
+                    }
+                    visited.put(next, i);
+                    if (tails[i] == queues[i].length) {
+                        queues[i] = Arrays.copyOf(queues[i], queues[i].length << 1);
+                    }
+                    queues[i][tails[i]++] = next;
+                }
+            }
+            // a group whose searches all ran dry has seen all of its part without meeting the others
+            for (int i = 0; i < sources; i++) {
+                boolean exhausted = true;
+                for (int k = 0; k < sources && exhausted; k++) {
+                    exhausted = groups[k] != groups[i] || heads[k] == tails[k];
+                }
+                if (exhausted) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private int ring(int x, int z, UUID owner) {
+        int ring = 0;
+        for (int i = 0; i < RING_X.length; i++) {
+            Node neighbour = nodes.get(LongObjectMap.key(x + RING_X[i], z + RING_Z[i]));
+            if (neighbour != null && neighbour.owner.equals(owner)) {
+                ring |= 1 << i;
+            }
+        }
+        return ring;
+    }
+
+    /**
+     * Checks whether the edge neighbours in a ring are connected through the ring alone, i.e. all lie in one run of
+     * owned chunks going around it.
+     * @param ring bit {@code i} set if the chunk at {@code RING_X[i], RING_Z[i]} is owned
+     * @return true if removing the chunk in the middle can't split its territory
+     */
+    static boolean isLocallyConnected(int ring) {
+        if (ring == 0xFF) {
+            return true;
+        }
+        int start = Integer.numberOfTrailingZeros(~ring & 0xFF);
+        int runs = 0;
+        boolean edge = false;
+        for (int i = 1; i <= 8; i++) {
+            int position = (start + i) & 7;
+            if ((ring & 1 << position) != 0) {
+                edge |= (position & 1) == 0;
+            } else {
+                if (edge) {
+                    runs++;
+                }
+                edge = false;
+            }
+        }
+        return runs <= 1;
+    }
+
+    private static Node find(Node node) {
+        Node root = node;
+        while (root.parent != root) {
+            root = root.parent;
+        }
+        while (node != root) {
+            Node next = node.parent;
+            node.parent = root;
+            node = next;
+        }
+        return root;
+    }
+
+    private static boolean union(Node a, Node b) {
+        Node rootA = find(a);
+        Node rootB = find(b);
+        if (rootA == rootB) {
+            return false;
+        }
+        if (rootA.size < rootB.size) {
+            Node swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        rootB.parent = rootA;
+        rootA.size += rootB.size;
+        return true;
+    }
+
+    private static final class Node {
+
+        private final UUID owner;
+        private Node parent;
+        private int size;
+
+        private Node(UUID owner) {
+            this.owner = owner;
+            this.parent = this;
+            this.size = 1;
+        }
+
+    }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Optional;
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Renders text maps of the territory around a chunk. The owners of each region are copied into a small array the
+ * first time a map covers the region and reused until {@link CellManager#getRegionVersion(World, int, int)} reports
+ * a change, so repeated maps of a busy area only read a few cached arrays.
+ * <p>
+ * Must only be used from the main thread.
+ */
+public final class TerritoryMap {
+
+    /**
+     * Number of chunks shown on each side of the center, horizontally.
+     */
+    public static final int RADIUS_X = 15;
+    /**
+     * Number of chunks shown on each side of the center, vertically.
+     */
+    public static final int RADIUS_Z = 5;
+    private static final int MAX_CACHED_REGIONS = 256;
+    private static final int SIZE = 1 << ClaimIndex.REGION_SHIFT;
+    private static final int MASK = SIZE - 1;
+    // every guild past Z, kept apart from the symbols of the legend
+    private static final char OTHER_GUILDS = '*';
+    private static final RegionView EMPTY = new RegionView(0, new UUID[SIZE * SIZE]);
+    private static final RegionView LOADING = createLoadingView();
+    private final CellManager cellManager;
+    private final TribeManager tribeManager;
+    private final Map<Vec2, RegionView> views;
+
+    public TerritoryMap(CellManager cellManager, TribeManager tribeManager) {
+        Preconditions.checkNotNull(cellManager, "cellManager cannot be null");
+        Preconditions.checkNotNull(tribeManager, "tribeManager cannot be null");
+        this.cellManager = cellManager;
+        this.tribeManager = tribeManager;
+        this.views = new LinkedHashMap<Vec2, RegionView>(MAX_CACHED_REGIONS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Vec2, RegionView> eldest) {
+                return size() > MAX_CACHED_REGIONS;
+            }
+        };
+    }
+
+    /**
+     * Renders the map around a chunk, north up, followed by a legend. Chunks of {@code viewer} are drawn in green
+     * and every other tribe gets a letter of its own.
+     * @param center chunk to center the map on
+     * @param viewer tribe of the player looking at the map, or null
+     * @return lines with color tags
+     */
+    public List<String> render(Vec2 center, UUID viewer) {
+        Preconditions.checkNotNull(center, "center cannot be null");
+        World world = center.getWorld();
+        List<String> lines = new ArrayList<>();
+        Map<UUID, Character> letters = new LinkedHashMap<>();
+        boolean loading = false;
+        boolean others = false;
+        for (int z = center.getZ() - RADIUS_Z; z <= center.getZ() + RADIUS_Z; z++) {
+            StringBuilder line = new StringBuilder();
+            String color = null;
+            RegionView view = null;
+            int viewX = 0;
+            for (int x = center.getX() - RADIUS_X; x <= center.getX() + RADIUS_X; x++) {
+                if (view == null || x >> ClaimIndex.REGION_SHIFT != viewX) {
+                    viewX = x >> ClaimIndex.REGION_SHIFT;
+                    view = getView(world, viewX, z >> ClaimIndex.REGION_SHIFT);
+                }
+                UUID owner = view.owners[(z & MASK) << ClaimIndex.REGION_SHIFT | x & MASK];
+                String chunkColor;
+                char symbol;
+                if (x == center.getX() && z == center.getZ()) {
+                    chunkColor = "<yellow>";
+                    symbol = '+';
+                } else if (owner == null) {
+                    chunkColor = "<gray>";
+                    symbol = '-';
+                } else if (owner.equals(CellManager.UNKNOWN_OWNER)) {
+                    chunkColor = "<gray>";
+                    symbol = '?';
+                    loading = true;
+                } else if (owner.equals(viewer)) {
+                    chunkColor = "<green>";
+                    symbol = '#';
+                } else {
+                    chunkColor = "<red>";
+                    symbol = getLetter(letters, owner);
+                    others |= symbol == OTHER_GUILDS;
+                }
+                if (!chunkColor.equals(color)) {
+                    line.append(chunkColor);
+                    color = chunkColor;
+                }
+                line.append(symbol);
+            }
+            lines.add(line.toString());
+        }
+        lines.add("<yellow>+<gray> you  <green>#<gray> your guild  <gray>- wilderness" +
+                (loading ? "  <gray>? loading" : "") + (others ? "  <red>*<gray> other guilds" : ""));
+        for (Map.Entry<UUID, Character> entry : letters.entrySet()) {
+            lines.add("<red>" + entry.getValue() + "<gray>: <white>" + getName(entry.getKey()));
+        }
+        return lines;
+    }
+
+    private RegionView getView(World world, int regionX, int regionZ) {
+        if (!cellManager.isLoaded(Vec2.fromCoordinates(world, regionX << ClaimIndex.REGION_SHIFT,
+                regionZ << ClaimIndex.REGION_SHIFT))) {
+            // claimed somewhere, so it mustn't be drawn as wilderness until it arrives
+            return LOADING;
+        }
+        int version = cellManager.getRegionVersion(world, regionX, regionZ);
+        if (version == 0) {
+            return EMPTY;
+        }
+        Vec2 region = Vec2.fromCoordinates(world, regionX, regionZ);
+        RegionView view = views.get(region);
+        if (view != null && view.version == version) {
+            return view;
+        }
+        UUID[] owners = new UUID[SIZE * SIZE];
+        int minX = regionX << ClaimIndex.REGION_SHIFT;
+        int minZ = regionZ << ClaimIndex.REGION_SHIFT;
+        for (Cell cell : cellManager.getCellsInBox(world, minX, minZ, minX + MASK, minZ + MASK)) {
+            Vec2 location = cell.getLocation();
+            owners[(location.getZ() & MASK) << ClaimIndex.REGION_SHIFT | location.getX() & MASK] = cell.getOwner();
+        }
+        view = new RegionView(version, owners);
+        views.put(region, view);
+        return view;
+    }
+
+    private static RegionView createLoadingView() {
+        UUID[] owners = new UUID[SIZE * SIZE];
+        Arrays.fill(owners, CellManager.UNKNOWN_OWNER);
+        return new RegionView(0, owners);
+    }
+
+    private static char getLetter(Map<UUID, Character> letters, UUID owner) {
+        Character letter = letters.get(owner);
+        if (letter == null) {
+            // past Z every other tribe shares one symbol
+            letter = letters.size() < 26 ? (char) ('A' + letters.size()) : OTHER_GUILDS;
+            if (letter != OTHER_GUILDS) {
+                letters.put(owner, letter);
+            }
+        }
+        return letter;
+    }
+
+    private String getName(UUID owner) {
+        Optional<Tribe> tribe = tribeManager.getTribe(owner);
+        return tribe.isPresent() && tribe.get().getName() != null ? tribe.get().getName() : "unnamed guild";
+    }
+
+    private static final class RegionView {
+
+        private final int version;
+        private final UUID[] owners;
+
+        private RegionView(int version, UUID[] owners) {
+            this.version = version;
+            this.owners = owners;
+        }
+
+    }
+
+}
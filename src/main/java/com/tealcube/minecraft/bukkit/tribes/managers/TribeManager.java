@@ -24,9 +24,14 @@ package com.tealcube.minecraft.bukkit.tribes.managers;
 
 import com.google.common.base.Preconditions;
 import com.tealcube.minecraft.bukkit.shade.google.common.base.Optional;
+import com.tealcube.minecraft.bukkit.tribes.data.ChangeListener;
+import com.tealcube.minecraft.bukkit.tribes.data.RemovalListener;
 import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -35,24 +40,61 @@ import java.util.concurrent.ConcurrentHashMap;
 public class TribeManager {
 
     private final Map<UUID, Tribe> tribeMap;
+    private final Set<UUID> dirtyTribes;
+    private final Set<UUID> removedTribes;
+    private final ChangeListener<Tribe> changeListener;
+    private ChangeListener<Tribe> changeObserver;
+    private RemovalListener<UUID> removalObserver;
 
     public TribeManager() {
         tribeMap = new ConcurrentHashMap<>();
+        dirtyTribes = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+        removedTribes = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+        changeListener = new ChangeListener<Tribe>() {
+            @Override
+            public void onChange(Tribe changed) {
+                dirtyTribes.add(changed.getUniqueId());
+                if (changeObserver != null) {
+                    changeObserver.onChange(changed);
+                }
+            }
+        };
     }
 
     public void addTribe(Tribe tribe) {
         Preconditions.checkNotNull(tribe);
-        tribeMap.put(tribe.getUniqueId(), tribe);
+        Tribe previous = tribeMap.put(tribe.getUniqueId(), tribe);
+        if (previous != null && previous != tribe) {
+            previous.setChangeListener(null);
+        }
+        tribe.setChangeListener(changeListener);
+        dirtyTribes.add(tribe.getUniqueId());
+        removedTribes.remove(tribe.getUniqueId());
+        if (changeObserver != null) {
+            changeObserver.onChange(tribe);
+        }
     }
 
     public void removeTribe(Tribe tribe) {
         Preconditions.checkNotNull(tribe);
-        tribeMap.remove(tribe.getUniqueId());
+        removeTribe(tribe.getUniqueId());
     }
 
     public void removeTribe(UUID uuid) {
         Preconditions.checkNotNull(uuid);
-        tribeMap.remove(uuid);
+        Tribe removed = tribeMap.remove(uuid);
+        if (removed != null) {
+            removed.setChangeListener(null);
+            tribeRemoved(uuid);
+        }
+    }
+
+    private void tribeRemoved(UUID uuid) {
+        dirtyTribes.remove(uuid);
+        removedTribes.add(uuid);
+        if (removalObserver != null) {
+            removalObserver.onRemove(uuid);
+        }
     }
 
     public boolean hasTribe(Tribe tribe) {
@@ -84,4 +126,69 @@ public class TribeManager {
         return Optional.absent();
     }
 
+    /**
+     * Returns every Tribe that changed since the last call and forgets about those changes. Tribes that were removed
+     * from this manager are not returned.
+     * @return changed tribes
+     */
+    public List<Tribe> takeDirtyTribes() {
+        List<Tribe> tribes = new ArrayList<>();
+        for (UUID uuid : new ArrayList<>(dirtyTribes)) {
+            dirtyTribes.remove(uuid);
+            Tribe tribe = tribeMap.get(uuid);
+            if (tribe != null) {
+                tribes.add(tribe);
+            }
+        }
+        return tribes;
+    }
+
+    /**
+     * Flags the given tribes as changed, e.g. after a failed save.
+     * @param tribes tribes to flag
+     */
+    public void markDirty(Iterable<Tribe> tribes) {
+        Preconditions.checkNotNull(tribes);
+        for (Tribe tribe : tribes) {
+            dirtyTribes.add(tribe.getUniqueId());
+        }
+    }
+
+    /**
+     * Sets a listener that is told about every change to a Tribe held by this manager, on top of dirty tracking.
+     * @param changeObserver listener to notify, or null
+     */
+    public void setChangeObserver(ChangeListener<Tribe> changeObserver) {
+        this.changeObserver = changeObserver;
+    }
+
+    /**
+     * Returns the id of every Tribe that was removed since the last call and forgets about those removals.
+     * @return ids of removed tribes
+     */
+    public List<UUID> takeRemovedTribes() {
+        List<UUID> uuids = new ArrayList<>();
+        for (UUID uuid : new ArrayList<>(removedTribes)) {
+            removedTribes.remove(uuid);
+            uuids.add(uuid);
+        }
+        return uuids;
+    }
+
+    /**
+     * Sets a listener that is told about every Tribe removed from this manager.
+     * @param removalObserver listener to notify, or null
+     */
+    public void setRemovalObserver(RemovalListener<UUID> removalObserver) {
+        this.removalObserver = removalObserver;
+    }
+
+    /**
+     * Forgets every pending change and removal, e.g. after loading from storage.
+     */
+    public void clearDirty() {
+        dirtyTribes.clear();
+        removedTribes.clear();
+    }
+
 }
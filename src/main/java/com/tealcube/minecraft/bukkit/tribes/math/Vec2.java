@@ -22,7 +22,6 @@
  */
 package com.tealcube.minecraft.bukkit.tribes.math;
 
-import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
@@ -51,6 +50,10 @@ public class Vec2 {
         return new Vec2(w, x, z);
     }
 
+    public static Vec2 fromCoordinates(World world, int x, int z) {
+        return new Vec2(world, x, z);
+    }
+
     /**
      * Creates a new Vec2 from a given Chunk.
      * @param c Chunk to create a Vec2
@@ -94,9 +97,9 @@ public class Vec2 {
     public int distanceSquared(Vec2 other) {
         Preconditions.checkNotNull(other);
         Preconditions.checkState(getWorld().equals(other.getWorld()));
-        int xDiff = Math.abs(getX() - other.getX());
-        int zDiff = Math.abs(getZ() - other.getZ());
-        return (int) Math.ceil(Math.pow(xDiff, 2) + Math.pow(zDiff, 2));
+        int xDiff = getX() - other.getX();
+        int zDiff = getZ() - other.getZ();
+        return xDiff * xDiff + zDiff * zDiff;
     }
 
     /**
@@ -117,14 +120,13 @@ public class Vec2 {
         if (this == o) return true;
         if (!(o instanceof Vec2)) return false;
         Vec2 vec2 = (Vec2) o;
-        return Objects.equal(getX(), vec2.getX()) &&
-                Objects.equal(getZ(), vec2.getZ()) &&
-                Objects.equal(getWorld(), vec2.getWorld());
+        // cheap coordinate checks first, worlds rarely differ
+        return x == vec2.x && z == vec2.z && world.equals(vec2.world);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(getWorld(), getX(), getZ());
+        return 31 * (31 * world.hashCode() + x) + z;
     }
 
     @Override
@@ -72,10 +72,10 @@ public class Vec3 extends Vec2 {
         Preconditions.checkNotNull(other);
         Preconditions.checkState(getWorld().equals(other.getWorld()));
         if (other instanceof Vec3) {
-            int xDiff = Math.abs(getX() - other.getX());
-            int yDiff = Math.abs(getY() - ((Vec3) other).getY());
-            int zDiff = Math.abs(getZ() - other.getZ());
-            return (int) Math.ceil(Math.pow(xDiff, 2) + Math.pow(yDiff, 2) + Math.pow(zDiff, 2));
+            int xDiff = getX() - other.getX();
+            int yDiff = getY() - ((Vec3) other).getY();
+            int zDiff = getZ() - other.getZ();
+            return xDiff * xDiff + yDiff * yDiff + zDiff * zDiff;
         }
         return super.distanceSquared(other);
     }
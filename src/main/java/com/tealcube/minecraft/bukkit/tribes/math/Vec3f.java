@@ -74,6 +74,10 @@ public class Vec3f extends Vec3 {
         return new Vec3f(w, x, y, z, pitch, yaw);
     }
 
+    public static Vec3f fromCoordinates(World world, int x, int y, int z, float pitch, float yaw) {
+        return new Vec3f(world, x, y, z, pitch, yaw);
+    }
+
     public static Vec3f fromLocation(Location location) {
         Preconditions.checkNotNull(location, "location cannot be null");
         return new Vec3f(location.getWorld(), location.getBlockX(), location.getBlockY(),
@@ -0,0 +1,236 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small, fixed-size pool of JDBC connections that are opened once and reused for the lifetime of a
+ * {@link DataStorage}. Connections handed out by {@link #borrow()} return themselves to the pool when closed, so
+ * callers can keep registering them with a {@code CloseableRegistry}.
+ */
+public final class ConnectionPool {
+
+    private final Factory factory;
+    private final BlockingQueue<Connection> idle;
+    private final List<Connection> connections;
+    private final int size;
+    private final long borrowTimeout;
+    private final int validationTimeout;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new ConnectionPool and eagerly opens {@code size} connections.
+     * @param factory creates and configures new connections
+     * @param size number of connections to keep open
+     * @param borrowTimeout milliseconds to wait for a free connection
+     * @throws SQLException if a connection cannot be opened
+     */
+    public ConnectionPool(Factory factory, int size, long borrowTimeout) throws SQLException {
+        this(factory, size, borrowTimeout, 0);
+    }
+
+    /**
+     * Constructs a new ConnectionPool and eagerly opens {@code size} connections. Borrowed connections are checked
+     * with {@link Connection#isValid(int)} first and reopened if the server dropped them.
+     * @param factory creates and configures new connections
+     * @param size number of connections to keep open
+     * @param borrowTimeout milliseconds to wait for a free connection
+     * @param validationTimeout seconds to wait for a validity check, or 0 to skip validation
+     * @throws SQLException if a connection cannot be opened
+     */
+    public ConnectionPool(Factory factory, int size, long borrowTimeout, int validationTimeout) throws SQLException {
+        Preconditions.checkNotNull(factory, "factory cannot be null");
+        Preconditions.checkArgument(size > 0, "size must be positive");
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<>(size);
+        this.connections = new ArrayList<>(size);
+        this.size = size;
+        this.borrowTimeout = borrowTimeout;
+        this.validationTimeout = validationTimeout;
+        try {
+            for (int i = 0; i < size; i++) {
+                Connection connection = factory.create();
+                connections.add(connection);
+                idle.add(connection);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a connection out of the pool, waiting up to the borrow timeout for one to become free. Closing the
+     * returned connection gives it back to the pool instead of closing it.
+     * @return pooled connection
+     * @throws SQLException if the pool is closed or no connection became available in time
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool is closed");
+        }
+        Connection connection;
+        try {
+            connection = idle.poll(borrowTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection");
+        }
+        if (connection == null) {
+            throw new SQLException("timed out waiting for a connection");
+        }
+        if (connection.isClosed() || !isValid(connection)) {
+            connection = replace(connection);
+        }
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PooledConnection(connection));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Closes every connection owned by this pool, including ones that are currently borrowed.
+     */
+    public void close() {
+        closed = true;
+        synchronized (connections) {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                    // nothing we can do about it
+                }
+            }
+            connections.clear();
+        }
+        idle.clear();
+    }
+
+    private boolean isValid(Connection connection) {
+        if (validationTimeout <= 0) {
+            return true;
+        }
+        try {
+            return connection.isValid(validationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection replace(Connection dead) throws SQLException {
+        synchronized (connections) {
+            connections.remove(dead);
+        }
+        try {
+            dead.close();
+        } catch (SQLException ignored) {
+            // already gone
+        }
+        Connection connection;
+        try {
+            connection = factory.create();
+        } catch (SQLException e) {
+            // keep the slot so the pool doesn't shrink forever
+            idle.offer(dead);
+            throw e;
+        }
+        synchronized (connections) {
+            connections.add(connection);
+        }
+        return connection;
+    }
+
+    private void release(Connection connection) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (!connection.isClosed() && !connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException ignored) {
+            // a broken connection gets replaced on its next borrow
+        }
+        idle.offer(connection);
+    }
+
+    /**
+     * Opens and configures the connections used by a {@link ConnectionPool}.
+     */
+    public interface Factory {
+
+        Connection create() throws SQLException;
+
+    }
+
+    private final class PooledConnection implements InvocationHandler {
+
+        private final Connection delegate;
+        private boolean released;
+
+        private PooledConnection(Connection delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                if (!released) {
+                    released = true;
+                    release(delegate);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return released || delegate.isClosed();
+            }
+            if (released) {
+                throw new SQLException("connection has been returned to the pool");
+            }
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+    }
+
+}
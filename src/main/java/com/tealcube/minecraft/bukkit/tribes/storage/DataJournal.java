@@ -0,0 +1,395 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.facecore.logging.PluginLogger;
+import com.tealcube.minecraft.bukkit.facecore.utilities.IOUtils;
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec3f;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of every change made to cells, members and tribes between two saves. Each change is appended
+ * as a small checksummed binary record holding the full new state of the changed entity, or the key of a removed
+ * one, so replaying the journal in order reproduces the latest state.
+ * <p>
+ * The journal is split into numbered segments. {@link #rotate()} closes the current segment when a save snapshot is
+ * taken, and {@link #checkpoint(long)} deletes segments once that snapshot has been written to the database.
+ */
+public final class DataJournal {
+
+    private static final String EXTENSION = ".journal";
+    private static final byte CELL = 1;
+    private static final byte MEMBER = 2;
+    private static final byte TRIBE = 3;
+    private static final byte CELL_REMOVED = 4;
+    private static final byte MEMBER_REMOVED = 5;
+    private static final byte TRIBE_REMOVED = 6;
+    private final File directory;
+    private final PluginLogger pluginLogger;
+    private final ByteArrayOutputStream buffer;
+    private final DataOutputStream record;
+    private final CRC32 crc;
+    private FileOutputStream out;
+    private long segment;
+    private boolean failed;
+
+    public DataJournal(File directory, PluginLogger pluginLogger) {
+        Preconditions.checkNotNull(directory, "directory cannot be null");
+        Preconditions.checkNotNull(pluginLogger, "pluginLogger cannot be null");
+        this.directory = directory;
+        this.pluginLogger = pluginLogger;
+        this.buffer = new ByteArrayOutputStream(128);
+        this.record = new DataOutputStream(buffer);
+        this.crc = new CRC32();
+        IOUtils.createDirectory(directory);
+    }
+
+    /**
+     * Reads every existing segment in order and returns the latest state of each entity they mention. Reading stops
+     * at the first torn or corrupt record of a segment.
+     * @return replayed data, empty if there is no journal
+     */
+    public synchronized DataSnapshot replay() {
+        DataSnapshot snapshot = new DataSnapshot();
+        for (long id : listSegments()) {
+            File file = segmentFile(id);
+            int records = 0;
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                while (readRecord(in, snapshot)) {
+                    records++;
+                }
+            } catch (IOException e) {
+                pluginLogger.log(Level.WARNING, "stopped replaying " + file.getName() + " after " + records +
+                        " records: " + e.getMessage());
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Opens a new segment to append to. Existing segments are left alone until they are checkpointed.
+     * @throws IOException if the segment cannot be created
+     */
+    public synchronized void open() throws IOException {
+        List<Long> segments = listSegments();
+        segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        out = new FileOutputStream(segmentFile(segment), true);
+    }
+
+    /**
+     * Closes the current segment and starts a new one. Every change appended before this call lives in a segment
+     * whose id is at most the returned value.
+     * @return id of the segment that was closed
+     */
+    public synchronized long rotate() {
+        long closed = segment;
+        closeQuietly(out);
+        segment++;
+        try {
+            out = new FileOutputStream(segmentFile(segment), true);
+        } catch (IOException e) {
+            out = null;
+            fail(e);
+        }
+        return closed;
+    }
+
+    /**
+     * Deletes every closed segment up to and including {@code upTo}, once their changes are safely in the database.
+     * @param upTo highest segment id to delete
+     */
+    public synchronized void checkpoint(long upTo) {
+        for (long id : listSegments()) {
+            if (id > upTo || id >= segment) {
+                break;
+            }
+            File file = segmentFile(id);
+            if (!file.delete()) {
+                pluginLogger.log(Level.WARNING, "unable to delete journal segment " + file.getName());
+            }
+        }
+    }
+
+    public synchronized void close() {
+        closeQuietly(out);
+        out = null;
+    }
+
+    public synchronized void append(Cell cell) {
+        try {
+            buffer.reset();
+            record.writeByte(CELL);
+            record.writeUTF(cell.getLocation().getWorld().getName());
+            record.writeInt(cell.getLocation().getX());
+            record.writeInt(cell.getLocation().getZ());
+            writeUUID(cell.getOwner());
+            write();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void append(Member member) {
+        try {
+            buffer.reset();
+            record.writeByte(MEMBER);
+            writeUUID(member.getUniqueId());
+            record.writeInt(member.getScore());
+            writeUUID(member.getTribe());
+            record.writeByte(member.getRank() != null ? member.getRank().ordinal() : Tribe.Rank.GUEST.ordinal());
+            record.writeByte(member.getPvpState().ordinal());
+            write();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void append(Tribe tribe) {
+        try {
+            buffer.reset();
+            record.writeByte(TRIBE);
+            writeUUID(tribe.getUniqueId());
+            writeUUID(tribe.getOwner());
+            record.writeBoolean(tribe.getName() != null);
+            if (tribe.getName() != null) {
+                record.writeUTF(tribe.getName());
+            }
+            record.writeByte(tribe.getLevel().ordinal());
+            record.writeBoolean(tribe.isValidated());
+            Vec3f home = tribe.getHome();
+            record.writeBoolean(home != null);
+            if (home != null) {
+                record.writeUTF(home.getWorld().getName());
+                record.writeInt(home.getX());
+                record.writeInt(home.getY());
+                record.writeInt(home.getZ());
+                record.writeFloat(home.getPitch());
+                record.writeFloat(home.getYaw());
+            }
+            write();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void appendRemoval(Vec2 vec2) {
+        try {
+            buffer.reset();
+            record.writeByte(CELL_REMOVED);
+            record.writeUTF(vec2.getWorld().getName());
+            record.writeInt(vec2.getX());
+            record.writeInt(vec2.getZ());
+            write();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void appendMemberRemoval(UUID uuid) {
+        appendRemoval(MEMBER_REMOVED, uuid);
+    }
+
+    public synchronized void appendTribeRemoval(UUID uuid) {
+        appendRemoval(TRIBE_REMOVED, uuid);
+    }
+
+    private void appendRemoval(byte type, UUID uuid) {
+        try {
+            buffer.reset();
+            record.writeByte(type);
+            writeUUID(uuid);
+            write();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void write() throws IOException {
+        if (out == null) {
+            return;
+        }
+        record.flush();
+        byte[] bytes = buffer.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(bytes.length + 8);
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        frameOut.writeInt(bytes.length);
+        frameOut.write(bytes);
+        frameOut.writeInt((int) crc.getValue());
+        // a single write per record, so a crash can only ever tear the last one
+        out.write(frame.toByteArray());
+    }
+
+    private boolean readRecord(DataInputStream in, DataSnapshot snapshot) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        if (length <= 0 || length > 1 << 16) {
+            throw new IOException("bad record length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        if (in.readInt() != (int) crc.getValue()) {
+            throw new IOException("checksum mismatch");
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = body.readByte();
+        try {
+            applyRecord(type, body, snapshot);
+        } catch (RuntimeException e) {
+            // e.g. the world no longer exists, skip just this record
+            pluginLogger.log(Level.WARNING, "skipping journal record: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private void applyRecord(byte type, DataInputStream body, DataSnapshot snapshot) throws IOException {
+        switch (type) {
+            case CELL:
+                Vec2 location = Vec2.fromCoordinates(body.readUTF(), body.readInt(), body.readInt());
+                snapshot.addCell(new Cell(location, readUUID(body)));
+                break;
+            case MEMBER:
+                Member member = new Member(readUUID(body));
+                member.setScore(body.readInt());
+                member.setTribe(readUUID(body));
+                member.setRank(Tribe.Rank.values()[body.readByte()]);
+                member.setPvpState(Member.PvpState.values()[body.readByte()]);
+                snapshot.addMember(member);
+                break;
+            case TRIBE:
+                Tribe tribe = new Tribe(readUUID(body));
+                tribe.setOwner(readUUID(body));
+                if (body.readBoolean()) {
+                    tribe.setName(body.readUTF());
+                }
+                tribe.setLevel(Tribe.Level.values()[body.readByte()]);
+                tribe.setValidated(body.readBoolean());
+                if (body.readBoolean()) {
+                    tribe.setHome(Vec3f.fromCoordinates(body.readUTF(), body.readInt(), body.readInt(),
+                            body.readInt(), body.readFloat(), body.readFloat()));
+                }
+                snapshot.addTribe(tribe);
+                break;
+            case CELL_REMOVED:
+                snapshot.removeCell(Vec2.fromCoordinates(body.readUTF(), body.readInt(), body.readInt()));
+                break;
+            case MEMBER_REMOVED:
+                snapshot.removeMember(readUUID(body));
+                break;
+            case TRIBE_REMOVED:
+                snapshot.removeTribe(readUUID(body));
+                break;
+            default:
+                throw new IOException("unknown record type " + type);
+        }
+    }
+
+    private void writeUUID(UUID uuid) throws IOException {
+        record.writeBoolean(uuid != null);
+        if (uuid != null) {
+            record.writeLong(uuid.getMostSignificantBits());
+            record.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    private UUID readUUID(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(EXTENSION)) {
+                continue;
+            }
+            try {
+                segments.add(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())));
+            } catch (NumberFormatException ignored) {
+                // not one of ours
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, String.format("%010d", id) + EXTENSION);
+    }
+
+    private void fail(IOException e) {
+        if (!failed) {
+            failed = true;
+            pluginLogger.log(Level.SEVERE, "unable to write to the journal: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing we can do about it
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.facecore.logging.PluginLogger;
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Writes {@link DataSnapshot}s to a {@link DataStorage} on a dedicated storage thread. Snapshots submitted while an
+ * earlier one is still waiting to be written are merged into it, so at most one write is ever queued.
+ * <p>
+ * A write that fails, e.g. because the database is locked, is kept and retried with exponential backoff. Snapshots
+ * submitted in the meantime are merged into it. Once more entries are queued than the high-water mark allows, the
+ * executor reports itself as overloaded so callers can hold back further changes.
+ */
+public final class DataSaveExecutor {
+
+    private final DataStorage dataStorage;
+    private final PluginLogger pluginLogger;
+    private static final int MAX_RETRY_DELAY = 60;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Object lock;
+    private final Runnable flushTask;
+    private final Runnable compactTask;
+    private volatile DataJournal dataJournal;
+    private DataSnapshot pending;
+    private boolean scheduled;
+    private boolean writing;
+    private int writingSize;
+    private int retryDelay;
+    private int highWaterMark;
+    private boolean overloaded;
+    private volatile boolean deletedSinceCompact;
+
+    public DataSaveExecutor(DataStorage dataStorage, PluginLogger pluginLogger) {
+        Preconditions.checkNotNull(dataStorage, "dataStorage cannot be null");
+        Preconditions.checkNotNull(pluginLogger, "pluginLogger cannot be null");
+        this.dataStorage = dataStorage;
+        this.pluginLogger = pluginLogger;
+        this.lock = new Object();
+        this.highWaterMark = Integer.MAX_VALUE;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Tribes Storage");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // shutdown writes what's left itself instead of waiting out a backoff
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.flushTask = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        this.compactTask = new Runnable() {
+            @Override
+            public void run() {
+                compactNow();
+            }
+        };
+    }
+
+    /**
+     * Sets the journal whose segments are checkpointed once the snapshots covering them have been written.
+     * @param dataJournal journal to checkpoint, or null
+     */
+    public void setDataJournal(DataJournal dataJournal) {
+        this.dataJournal = dataJournal;
+    }
+
+    /**
+     * Sets the number of queued entries above which this executor reports itself as overloaded.
+     * @param highWaterMark maximum number of entries, or 0 for no limit
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        synchronized (lock) {
+            this.highWaterMark = highWaterMark > 0 ? highWaterMark : Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Checks whether more entries are waiting to be written than the high-water mark allows. While this is true,
+     * changes are better left in the managers, which coalesce them by key, than copied into yet another snapshot.
+     * @return true if the queue is above its high-water mark
+     */
+    public boolean isOverloaded() {
+        synchronized (lock) {
+            return overloaded;
+        }
+    }
+
+    /**
+     * Queues a snapshot to be written. If a write is already queued but hasn't started, the snapshot is merged into
+     * it instead of queueing another one.
+     * @param snapshot snapshot to write
+     */
+    public void submit(DataSnapshot snapshot) {
+        Preconditions.checkNotNull(snapshot, "snapshot cannot be null");
+        synchronized (lock) {
+            if (!snapshot.isEmpty() || snapshot.getJournalSegment() >= 0) {
+                if (pending == null) {
+                    pending = snapshot;
+                } else {
+                    pending.merge(snapshot);
+                }
+            }
+            updateOverloaded();
+            if (pending == null || scheduled || executor.isShutdown()) {
+                return;
+            }
+            scheduled = true;
+        }
+        if (!execute(flushTask)) {
+            // shut down in the meantime, shutdown() writes what's pending itself
+            synchronized (lock) {
+                scheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting work, waits for the write in progress to finish and then writes whatever is still pending on
+     * the calling thread. If the storage thread doesn't finish in time nothing is written here, as that would race
+     * the write still in progress; whatever is left stays in the journal to be replayed on the next start.
+     * @param timeout maximum time to wait for the storage thread
+     * @param unit unit of {@code timeout}
+     * @return true if everything submitted was written, false if something is left or the storage thread is still
+     * running
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                pluginLogger.log(Level.WARNING, "storage thread did not finish in time, leaving unsaved changes " +
+                        "to the journal");
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        // the storage thread is gone, so this can't overlap with one of its writes
+        flush();
+        synchronized (lock) {
+            return pending == null;
+        }
+    }
+
+    /**
+     * Runs a task on the storage thread once every snapshot submitted before this call has been written, or has
+     * failed and is waiting to be retried.
+     * @param task task to run
+     * @return true if the task was queued, false if the executor is shutting down
+     */
+    public boolean runAfterWrites(Runnable task) {
+        Preconditions.checkNotNull(task, "task cannot be null");
+        return execute(task);
+    }
+
+    /**
+     * Compacts the storage on the storage thread once every snapshot submitted before this call has been written.
+     * Does nothing if no rows were deleted since the last compaction.
+     */
+    public void compact() {
+        if (deletedSinceCompact) {
+            execute(compactTask);
+        }
+    }
+
+    /**
+     * Checks whether everything submitted so far has been written.
+     * @return true if nothing is queued or being written
+     */
+    public boolean isIdle() {
+        synchronized (lock) {
+            return pending == null && !scheduled && !writing;
+        }
+    }
+
+    private boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void flush() {
+        DataSnapshot snapshot;
+        synchronized (lock) {
+            snapshot = pending;
+            pending = null;
+            scheduled = false;
+            writing = snapshot != null;
+            writingSize = snapshot != null ? snapshot.size() : 0;
+        }
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            flush(snapshot);
+        } finally {
+            synchronized (lock) {
+                writing = false;
+                writingSize = 0;
+                updateOverloaded();
+            }
+        }
+    }
+
+    private void flush(DataSnapshot snapshot) {
+        DataSnapshot failed = write(snapshot);
+        if (failed.isEmpty()) {
+            synchronized (lock) {
+                retryDelay = 0;
+            }
+            DataJournal journal = dataJournal;
+            if (journal != null && snapshot.getJournalSegment() >= 0) {
+                journal.checkpoint(snapshot.getJournalSegment());
+            }
+            return;
+        }
+        failed.setJournalSegment(snapshot.getJournalSegment());
+        int delay;
+        synchronized (lock) {
+            // anything submitted while we were writing is newer than what just failed
+            if (pending != null) {
+                failed.merge(pending);
+            }
+            pending = failed;
+            retryDelay = retryDelay == 0 ? 1 : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+            delay = retryDelay;
+            if (!scheduled && !executor.isShutdown()) {
+                scheduled = true;
+                try {
+                    executor.schedule(flushTask, delay, TimeUnit.SECONDS);
+                } catch (RejectedExecutionException e) {
+                    // shut down since the check, shutdown() picks the snapshot up
+                    scheduled = false;
+                }
+            }
+        }
+        pluginLogger.log(Level.WARNING, "unable to save " + failed.size() + " entries, retrying in " + delay + "s");
+    }
+
+    private void updateOverloaded() {
+        int queued = (pending != null ? pending.size() : 0) + writingSize;
+        if (!overloaded && queued > highWaterMark) {
+            overloaded = true;
+            pluginLogger.log(Level.WARNING, queued + " entries are waiting to be saved, holding back new changes " +
+                    "until storage catches up");
+        } else if (overloaded && queued <= highWaterMark / 2) {
+            overloaded = false;
+            pluginLogger.log(Level.INFO, "storage caught up, " + queued + " entries left to save");
+        }
+    }
+
+    private void compactNow() {
+        if (!deletedSinceCompact) {
+            return;
+        }
+        deletedSinceCompact = false;
+        long start = System.nanoTime();
+        if (!dataStorage.compact()) {
+            deletedSinceCompact = true;
+            return;
+        }
+        pluginLogger.log(Level.INFO, "compacted the database in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    private DataSnapshot write(DataSnapshot snapshot) {
+        DataSnapshot failed = new DataSnapshot();
+        if (!snapshot.getTribes().isEmpty() && !dataStorage.saveTribes(snapshot.getTribes())) {
+            for (Tribe tribe : snapshot.getTribes()) {
+                failed.addTribe(tribe);
+            }
+        }
+        if (!snapshot.getCells().isEmpty() && !dataStorage.saveCells(snapshot.getCells())) {
+            for (Cell cell : snapshot.getCells()) {
+                failed.addCell(cell);
+            }
+        }
+        if (!snapshot.getMembers().isEmpty() && !dataStorage.saveMembers(snapshot.getMembers())) {
+            for (Member member : snapshot.getMembers()) {
+                failed.addMember(member);
+            }
+        }
+        // tombstones go last, a failed delete is retried just like a failed save
+        if (!snapshot.getRemovedCells().isEmpty()) {
+            if (dataStorage.deleteCells(snapshot.getRemovedCells())) {
+                deletedSinceCompact = true;
+            } else {
+                for (Vec2 vec2 : snapshot.getRemovedCells()) {
+                    failed.removeCell(vec2);
+                }
+            }
+        }
+        if (!snapshot.getRemovedMembers().isEmpty()) {
+            if (dataStorage.deleteMembers(snapshot.getRemovedMembers())) {
+                deletedSinceCompact = true;
+            } else {
+                for (UUID uuid : snapshot.getRemovedMembers()) {
+                    failed.removeMember(uuid);
+                }
+            }
+        }
+        if (!snapshot.getRemovedTribes().isEmpty()) {
+            if (dataStorage.deleteTribes(snapshot.getRemovedTribes())) {
+                deletedSinceCompact = true;
+            } else {
+                for (UUID uuid : snapshot.getRemovedTribes()) {
+                    failed.removeTribe(uuid);
+                }
+            }
+        }
+        return failed;
+    }
+
+}
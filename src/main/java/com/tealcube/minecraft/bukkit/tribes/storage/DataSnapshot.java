@@ -0,0 +1,176 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A point-in-time copy of data waiting to be written to a {@link DataStorage}. Snapshots are built on the main thread
+ * from detached copies, so they can be written from any thread without racing the game.
+ * <p>
+ * Besides changed entities, a snapshot holds tombstones for entities that were removed. A key is never both changed
+ * and removed: whichever happened last wins.
+ */
+public final class DataSnapshot {
+
+    private final Map<Vec2, Cell> cells;
+    private final Map<UUID, Member> members;
+    private final Map<UUID, Tribe> tribes;
+    private final Set<Vec2> removedCells;
+    private final Set<UUID> removedMembers;
+    private final Set<UUID> removedTribes;
+    private long journalSegment;
+
+    public DataSnapshot() {
+        this.cells = new LinkedHashMap<>();
+        this.members = new LinkedHashMap<>();
+        this.tribes = new LinkedHashMap<>();
+        this.removedCells = new LinkedHashSet<>();
+        this.removedMembers = new LinkedHashSet<>();
+        this.removedTribes = new LinkedHashSet<>();
+        this.journalSegment = -1;
+    }
+
+    public void addCell(Cell cell) {
+        Preconditions.checkNotNull(cell, "cell cannot be null");
+        cells.put(cell.getLocation(), cell);
+        removedCells.remove(cell.getLocation());
+    }
+
+    public void addMember(Member member) {
+        Preconditions.checkNotNull(member, "member cannot be null");
+        members.put(member.getUniqueId(), member);
+        removedMembers.remove(member.getUniqueId());
+    }
+
+    public void addTribe(Tribe tribe) {
+        Preconditions.checkNotNull(tribe, "tribe cannot be null");
+        tribes.put(tribe.getUniqueId(), tribe);
+        removedTribes.remove(tribe.getUniqueId());
+    }
+
+    public void removeCell(Vec2 vec2) {
+        Preconditions.checkNotNull(vec2, "vec2 cannot be null");
+        removedCells.add(vec2);
+        cells.remove(vec2);
+    }
+
+    public void removeMember(UUID uuid) {
+        Preconditions.checkNotNull(uuid, "uuid cannot be null");
+        removedMembers.add(uuid);
+        members.remove(uuid);
+    }
+
+    public void removeTribe(UUID uuid) {
+        Preconditions.checkNotNull(uuid, "uuid cannot be null");
+        removedTribes.add(uuid);
+        tribes.remove(uuid);
+    }
+
+    public Collection<Cell> getCells() {
+        return Collections.unmodifiableCollection(cells.values());
+    }
+
+    public Collection<Member> getMembers() {
+        return Collections.unmodifiableCollection(members.values());
+    }
+
+    public Collection<Tribe> getTribes() {
+        return Collections.unmodifiableCollection(tribes.values());
+    }
+
+    public Set<Vec2> getRemovedCells() {
+        return Collections.unmodifiableSet(removedCells);
+    }
+
+    public Set<UUID> getRemovedMembers() {
+        return Collections.unmodifiableSet(removedMembers);
+    }
+
+    public Set<UUID> getRemovedTribes() {
+        return Collections.unmodifiableSet(removedTribes);
+    }
+
+    /**
+     * Gets the id of the last {@link DataJournal} segment whose changes are all contained in this snapshot, or -1 if
+     * journaling is off.
+     * @return last covered journal segment
+     */
+    public long getJournalSegment() {
+        return journalSegment;
+    }
+
+    public void setJournalSegment(long journalSegment) {
+        this.journalSegment = journalSegment;
+    }
+
+    public int size() {
+        return cells.size() + members.size() + tribes.size() + removedCells.size() + removedMembers.size() +
+                removedTribes.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Folds a newer snapshot into this one. Where both snapshots contain the same key, the newer value or tombstone
+     * wins.
+     * @param newer snapshot taken after this one
+     */
+    public void merge(DataSnapshot newer) {
+        Preconditions.checkNotNull(newer, "newer cannot be null");
+        for (Vec2 vec2 : newer.removedCells) {
+            removeCell(vec2);
+        }
+        for (UUID uuid : newer.removedMembers) {
+            removeMember(uuid);
+        }
+        for (UUID uuid : newer.removedTribes) {
+            removeTribe(uuid);
+        }
+        for (Cell cell : newer.cells.values()) {
+            addCell(cell);
+        }
+        for (Member member : newer.members.values()) {
+            addMember(member);
+        }
+        for (Tribe tribe : newer.tribes.values()) {
+            addTribe(tribe);
+        }
+        journalSegment = Math.max(journalSegment, newer.journalSegment);
+    }
+
+}
@@ -27,7 +27,11 @@ import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
 import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
 import com.tealcube.minecraft.bukkit.tribes.data.Cell;
 
+import org.bukkit.World;
+
+import java.io.File;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -37,28 +41,117 @@ public interface DataStorage {
 
     void shutdown();
 
+    /**
+     * Returns how many calls this storage can serve at the same time without making any of them wait.
+     * @return number of concurrent calls, at least 1
+     */
+    int getParallelism();
+
     Set<Cell> loadCells();
 
+    /**
+     * Hands every stored cell to {@code visitor} while the table is being read, without collecting them first.
+     * @param visitor receives each cell
+     * @return true if the whole table was read
+     */
+    boolean forEachCell(DataVisitor<Cell> visitor);
+
     Set<Cell> loadCells(Iterable<Vec2> vec2s);
 
     Set<Cell> loadCells(Vec2... vec2s);
 
-    void saveCells(Iterable<Cell> cellIterable);
+    /**
+     * Loads every stored cell of {@code world} whose chunk coordinates lie within the given inclusive bounds.
+     * @param world world of the cells
+     * @param minX lowest chunk x
+     * @param minZ lowest chunk z
+     * @param maxX highest chunk x
+     * @param maxZ highest chunk z
+     * @return stored cells within the bounds
+     */
+    Set<Cell> loadCells(World world, int minX, int minZ, int maxX, int maxZ);
+
+    /**
+     * Counts the claimed cells of every owner per region, as used by a
+     * {@link com.tealcube.minecraft.bukkit.tribes.managers.ClaimIndex}.
+     * @return claim counts keyed by region and then by owner, or null if they could not all be read
+     */
+    Map<Vec2, Map<UUID, Integer>> loadRegionClaims();
+
+    boolean saveCells(Iterable<Cell> cellIterable);
+
+    /**
+     * Deletes the stored cells at the given locations. Locations that aren't stored are ignored.
+     * @param vec2s locations of removed cells
+     * @return true if the delete was committed
+     */
+    boolean deleteCells(Iterable<Vec2> vec2s);
 
     List<Member> loadMembers();
 
+    /**
+     * Hands every stored member to {@code visitor} while the table is being read, without collecting them first.
+     * @param visitor receives each member
+     * @return true if the whole table was read
+     */
+    boolean forEachMember(DataVisitor<Member> visitor);
+
     List<Member> loadMembers(Iterable<UUID> uuids);
 
     List<Member> loadMembers(UUID... uuids);
 
-    void saveMembers(Iterable<Member> memberIterable);
+    /**
+     * Loads one page of members ordered by descending score.
+     * @param offset number of members to skip
+     * @param limit maximum number of members to return
+     * @return members of the page, highest score first
+     */
+    List<Member> loadTopMembers(int offset, int limit);
+
+    boolean saveMembers(Iterable<Member> memberIterable);
+
+    /**
+     * Deletes the stored members with the given ids. Ids that aren't stored are ignored.
+     * @param uuids ids of removed members
+     * @return true if the delete was committed
+     */
+    boolean deleteMembers(Iterable<UUID> uuids);
 
     List<Tribe> loadTribes();
 
+    /**
+     * Hands every stored tribe to {@code visitor} while the table is being read, without collecting them first.
+     * @param visitor receives each tribe
+     * @return true if the whole table was read
+     */
+    boolean forEachTribe(DataVisitor<Tribe> visitor);
+
     List<Tribe> loadTribes(Iterable<UUID> uuids);
 
     List<Tribe> loadTribes(UUID... uuids);
 
-    void saveTribes(Iterable<Tribe> tribeIterable);
+    boolean saveTribes(Iterable<Tribe> tribeIterable);
+
+    /**
+     * Deletes the stored tribes with the given ids. Ids that aren't stored are ignored.
+     * @param uuids ids of removed tribes
+     * @return true if the delete was committed
+     */
+    boolean deleteTribes(Iterable<UUID> uuids);
+
+    /**
+     * Gives the space of deleted rows back where the database doesn't do so on its own. This may take a while on
+     * large databases, so it should only run on the storage thread.
+     * @return true if compacting succeeded
+     */
+    boolean compact();
+
+    /**
+     * Writes a consistent copy of the whole database to {@code target} while the database stays in use. Like
+     * {@link #compact()}, this should only run on the storage thread.
+     * @param target file to write the copy to, must not exist yet
+     * @return true if the copy was written, false if it failed or this storage can't copy itself
+     */
+    boolean backup(File target);
 
 }
@@ -0,0 +1,942 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.facecore.logging.PluginLogger;
+import com.tealcube.minecraft.bukkit.kern.io.CloseableRegistry;
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.TribesPlugin;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.managers.ClaimIndex;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec3f;
+import org.bukkit.World;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.*;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * Shared JDBC implementation of {@link DataStorage}. Subclasses supply the connection pool, the table definitions
+ * and the upsert syntax of their database.
+ * <p>
+ * Worlds are stored once in {@code tr_worlds} and referenced by id, UUIDs are stored as 16 raw bytes and tribe homes
+ * are split into typed columns. Databases still using the original text-only tables are migrated by {@link
+ * SchemaMigrator} when the storage is initialized.
+ */
+public abstract class JdbcDataStorage implements DataStorage {
+
+    private static final Comparator<Member> SCORE_DESCENDING = new Comparator<Member>() {
+        @Override
+        public int compare(Member o1, Member o2) {
+            return Integer.compare(o2.getScore(), o1.getScore());
+        }
+    };
+    private final String name;
+    private final PluginLogger pluginLogger;
+    private final WorldDictionary worldDictionary;
+    private volatile boolean initialized;
+    private TribesPlugin plugin;
+    private ConnectionPool connectionPool;
+    private int batchSize;
+    private int maxParameters;
+
+    protected JdbcDataStorage(TribesPlugin plugin, String name) {
+        this.plugin = plugin;
+        this.name = name;
+        this.pluginLogger = new PluginLogger(new File(plugin.getDataFolder(), "logs/" + name + ".log"));
+        this.worldDictionary = new WorldDictionary();
+        this.initialized = false;
+        this.batchSize = 500;
+        this.maxParameters = 900;
+    }
+
+    /**
+     * Opens the pool of connections used by this storage.
+     * @return connection pool
+     * @throws SQLException if the database cannot be reached
+     */
+    protected abstract ConnectionPool createConnectionPool() throws SQLException;
+
+    /**
+     * Returns the statements that create any missing tables of the current schema, including {@code tr_worlds}.
+     * @return table definitions
+     */
+    protected abstract List<String> getCreateTableStatements();
+
+    /**
+     * Builds an insert-or-update statement for a single row of {@code table}.
+     * @param table table name
+     * @param keys primary key columns
+     * @param columns remaining columns
+     * @return parameterized query binding {@code keys} followed by {@code columns}
+     */
+    protected abstract String getUpsertQuery(String table, List<String> keys, List<String> columns);
+
+    /**
+     * Returns an SQL expression for the region coordinate of a chunk coordinate column.
+     * @param column chunk coordinate column
+     * @return SQL expression rounding towards negative infinity
+     */
+    protected String getRegionExpression(String column) {
+        return "(" + column + " >> " + ClaimIndex.REGION_SHIFT + ")";
+    }
+
+    /**
+     * Creates a statement that reads large results row by row instead of buffering them whole.
+     * @param connection connection to create the statement on
+     * @return forward-only, read-only statement
+     * @throws SQLException if the statement cannot be created
+     */
+    protected Statement createStreamingStatement(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(batchSize);
+        return statement;
+    }
+
+    /**
+     * Called after a migration dropped the old tables and by {@link #compact()}, so the database can give the space
+     * of deleted rows back.
+     * @param statement statement on a connection in auto-commit mode
+     * @throws SQLException if compacting fails
+     */
+    protected void compact(Statement statement) throws SQLException {
+        // most databases reuse the space on their own
+    }
+
+    /**
+     * Copies the database to {@code target} for {@link #backup(File)}.
+     * @param statement statement on a connection in auto-commit mode
+     * @param target file to copy to
+     * @throws SQLException if copying fails or isn't supported
+     */
+    protected void backup(Statement statement, File target) throws SQLException {
+        throw new SQLFeatureNotSupportedException(name + " databases can't be backed up from the plugin");
+    }
+
+    protected TribesPlugin getPlugin() {
+        return plugin;
+    }
+
+    protected PluginLogger getStorageLogger() {
+        return pluginLogger;
+    }
+
+    protected void setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : 500;
+    }
+
+    protected void setMaxParameters(int maxParameters) {
+        this.maxParameters = maxParameters;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    WorldDictionary getWorldDictionary() {
+        return worldDictionary;
+    }
+
+    private void createTable() throws SQLException {
+        CloseableRegistry registry = new CloseableRegistry();
+        Connection connection = registry.register(getConnection());
+
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            SchemaMigrator migrator = new SchemaMigrator(this, connection);
+            migrator.prepare();
+            Statement statement = registry.register(connection.createStatement());
+            for (String create : getCreateTableStatements()) {
+                statement.executeUpdate(create);
+            }
+            worldDictionary.load(connection);
+            if (migrator.migrate()) {
+                compact(statement);
+            }
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public void initialize() {
+        if (initialized) {
+            return;
+        }
+
+        try {
+            connectionPool = createConnectionPool();
+            if (connectionPool == null) {
+                return;
+            }
+            createTable();
+            initialized = true;
+            plugin.getPluginLogger().log(Level.INFO, name + " initialized");
+        } catch (SQLException ex) {
+            if (connectionPool != null) {
+                connectionPool.close();
+                connectionPool = null;
+            }
+            pluginLogger.log("unable to set up tables: " + ex.getMessage());
+            plugin.getPluginLogger().log(Level.INFO, "unable to setup " + name);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (!initialized) {
+            return;
+        }
+        connectionPool.close();
+        connectionPool = null;
+        initialized = false;
+    }
+
+    @Override
+    public int getParallelism() {
+        ConnectionPool pool = connectionPool;
+        return pool != null ? pool.getSize() : 1;
+    }
+
+    @Override
+    public Set<Cell> loadCells() {
+        final Set<Cell> cells = new HashSet<>();
+        forEachCell(new DataVisitor<Cell>() {
+            @Override
+            public void visit(Cell row) {
+                cells.add(row);
+            }
+        });
+        return cells;
+    }
+
+    @Override
+    public boolean forEachCell(DataVisitor<Cell> visitor) {
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkNotNull(visitor, "visitor cannot be null");
+        String query = "SELECT * FROM tr_cells";
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection c = registry.register(getConnection());
+            // worlds other servers stored since startup, as nothing else can be read while streaming
+            worldDictionary.load(c);
+            Statement s = registry.register(createStreamingStatement(c));
+            ResultSet rs = registry.register(s.executeQuery(query));
+            while (rs.next()) {
+                Cell cell = readCell(rs);
+                if (cell != null) {
+                    visitor.visit(cell);
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            pluginLogger.log("unable to load cells: " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public Set<Cell> loadCells(Iterable<Vec2> vec2s) {
+        Set<Cell> cells = new HashSet<>();
+        Preconditions.checkState(initialized, "must be initialized");
+        int chunkSize = Math.max(1, maxParameters / 3);
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection c = registry.register(getConnection());
+            List<Vec2> keys = new ArrayList<>();
+            List<Integer> worldIds = new ArrayList<>();
+            for (Vec2 vec2 : new LinkedHashSet<>(toList(vec2s))) {
+                // a world that was never stored has no cells
+                Integer worldId = worldDictionary.findId(c, vec2.getWorld().getName());
+                if (worldId != null) {
+                    keys.add(vec2);
+                    worldIds.add(worldId);
+                }
+            }
+            for (int from = 0; from < keys.size(); from += chunkSize) {
+                List<Vec2> chunk = keys.subList(from, Math.min(keys.size(), from + chunkSize));
+                String query = "SELECT * FROM tr_cells WHERE " + repeat("(world=? AND x=? AND z=?)", " OR ",
+                        chunk.size());
+                CloseableRegistry chunkRegistry = new CloseableRegistry();
+                try {
+                    PreparedStatement statement = chunkRegistry.register(c.prepareStatement(query));
+                    int index = 1;
+                    for (int i = 0; i < chunk.size(); i++) {
+                        Vec2 vec = chunk.get(i);
+                        statement.setInt(index++, worldIds.get(from + i));
+                        statement.setInt(index++, vec.getX());
+                        statement.setInt(index++, vec.getZ());
+                    }
+                    ResultSet rs = chunkRegistry.register(statement.executeQuery());
+                    while (rs.next()) {
+                        addCell(cells, rs);
+                    }
+                } finally {
+                    chunkRegistry.closeQuietly();
+                }
+            }
+        } catch (Exception e) {
+            pluginLogger.log("unable to load cells: " + e.getMessage());
+        } finally {
+            registry.closeQuietly();
+        }
+        return cells;
+    }
+
+    @Override
+    public Set<Cell> loadCells(World world, int minX, int minZ, int maxX, int maxZ) {
+        Set<Cell> cells = new HashSet<>();
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkNotNull(world, "world cannot be null");
+        String query = "SELECT * FROM tr_cells WHERE world=? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ?";
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection c = registry.register(getConnection());
+            Integer worldId = worldDictionary.findId(c, world.getName());
+            if (worldId == null) {
+                return cells;
+            }
+            PreparedStatement statement = registry.register(c.prepareStatement(query));
+            statement.setInt(1, worldId);
+            statement.setInt(2, minX);
+            statement.setInt(3, maxX);
+            statement.setInt(4, minZ);
+            statement.setInt(5, maxZ);
+            ResultSet rs = registry.register(statement.executeQuery());
+            while (rs.next()) {
+                addCell(cells, rs);
+            }
+        } catch (Exception e) {
+            pluginLogger.log("unable to load cells: " + e.getMessage());
+        } finally {
+            registry.closeQuietly();
+        }
+        return cells;
+    }
+
+    @Override
+    public Map<Vec2, Map<UUID, Integer>> loadRegionClaims() {
+        Map<Vec2, Map<UUID, Integer>> claims = new HashMap<>();
+        Preconditions.checkState(initialized, "must be initialized");
+        String query = "SELECT world, " + getRegionExpression("x") + " AS rx, " + getRegionExpression("z") +
+                " AS rz, owner, COUNT(*) AS claims FROM tr_cells WHERE owner IS NOT NULL GROUP BY world, rx, rz, owner";
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection c = registry.register(getConnection());
+            worldDictionary.load(c);
+            Statement s = registry.register(c.createStatement());
+            ResultSet rs = registry.register(s.executeQuery(query));
+            while (rs.next()) {
+                World world = worldDictionary.getWorld(rs.getInt("world"));
+                if (world == null) {
+                    continue;
+                }
+                Vec2 region = Vec2.fromCoordinates(world, rs.getInt("rx"), rs.getInt("rz"));
+                Map<UUID, Integer> owners = claims.get(region);
+                if (owners == null) {
+                    owners = new HashMap<>();
+                    claims.put(region, owners);
+                }
+                owners.put(fromBytes(rs.getBytes("owner")), rs.getInt("claims"));
+            }
+        } catch (Exception e) {
+            pluginLogger.log("unable to load region claims: " + e.getMessage());
+            // a region left out would read as wilderness
+            return null;
+        } finally {
+            registry.closeQuietly();
+        }
+        return claims;
+    }
+
+    @Override
+    public Set<Cell> loadCells(Vec2... vec2s) {
+        return loadCells(Arrays.asList(vec2s));
+    }
+
+    @Override
+    public boolean saveCells(Iterable<Cell> cellIterable) {
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkNotNull(cellIterable, "cellIterable cannot be null");
+        String query = getUpsertQuery("tr_cells", Arrays.asList("world", "x", "z"), Arrays.asList("owner"));
+        CloseableRegistry registry = new CloseableRegistry();
+        Connection c = null;
+        try {
+            c = registry.register(getConnection());
+            // new world ids are stored up front so a rollback can't leave the dictionary ahead of the table
+            for (Cell cell : cellIterable) {
+                worldDictionary.getId(c, cell.getLocation().getWorld().getName());
+            }
+            c.setAutoCommit(false);
+            PreparedStatement statement = registry.register(c.prepareStatement(query));
+            int pending = 0;
+            for (Cell cell : cellIterable) {
+                statement.setInt(1, worldDictionary.getId(c, cell.getLocation().getWorld().getName()));
+                statement.setInt(2, cell.getLocation().getX());
+                statement.setInt(3, cell.getLocation().getZ());
+                setUuid(statement, 4, cell.getOwner());
+                statement.addBatch();
+                pending = flushBatch(statement, pending + 1);
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+            c.commit();
+            return true;
+        } catch (SQLException e) {
+            rollbackQuietly(c);
+            pluginLogger.log("unable to save cells: " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public List<Member> loadMembers() {
+        final List<Member> members = new ArrayList<>();
+        forEachMember(new DataVisitor<Member>() {
+            @Override
+            public void visit(Member row) {
+                members.add(row);
+            }
+        });
+        // sorted here rather than by the query so streaming reads don't need a sort
+        Collections.sort(members, SCORE_DESCENDING);
+        return members;
+    }
+
+    @Override
+    public boolean forEachMember(DataVisitor<Member> visitor) {
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkNotNull(visitor, "visitor cannot be null");
+        String query = "SELECT * FROM tr_members";
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection connection = registry.register(getConnection());
+            Statement statement = registry.register(createStreamingStatement(connection));
+            ResultSet resultSet = registry.register(statement.executeQuery(query));
+            while (resultSet.next()) {
+                visitor.visit(readMember(resultSet));
+            }
+            return true;
+        } catch (SQLException e) {
+            pluginLogger.log("unable to load members:" + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public List<Member> loadMembers(Iterable<UUID> uuids) {
+        List<Member> members = new ArrayList<>();
+        Preconditions.checkState(initialized, "must be initialized");
+        List<UUID> keys = new ArrayList<>(new LinkedHashSet<>(toList(uuids)));
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection c = registry.register(getConnection());
+            for (int from = 0; from < keys.size(); from += maxParameters) {
+                List<UUID> chunk = keys.subList(from, Math.min(keys.size(), from + maxParameters));
+                String query = "SELECT * FROM tr_members WHERE id IN (" + repeat("?", ",", chunk.size()) + ")";
+                CloseableRegistry chunkRegistry = new CloseableRegistry();
+                try {
+                    PreparedStatement statement = chunkRegistry.register(c.prepareStatement(query));
+                    bindUuids(statement, chunk);
+                    ResultSet resultSet = chunkRegistry.register(statement.executeQuery());
+                    while (resultSet.next()) {
+                        members.add(readMember(resultSet));
+                    }
+                } finally {
+                    chunkRegistry.closeQuietly();
+                }
+            }
+        } catch (Exception e) {
+            pluginLogger.log("unable to load members: " + e.getMessage());
+        } finally {
+            registry.closeQuietly();
+        }
+        // chunks come back in arbitrary order, so restore the score ordering across all of them
+        Collections.sort(members, SCORE_DESCENDING);
+        return members;
+    }
+
+    @Override
+    public List<Member> loadTopMembers(int offset, int limit) {
+        List<Member> members = new ArrayList<>();
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkArgument(offset >= 0 && limit >= 0, "offset and limit cannot be negative");
+        String query = "SELECT * FROM tr_members ORDER BY score DESC LIMIT ? OFFSET ?";
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection connection = registry.register(getConnection());
+            PreparedStatement statement = registry.register(connection.prepareStatement(query));
+            statement.setInt(1, limit);
+            statement.setInt(2, offset);
+            ResultSet resultSet = registry.register(statement.executeQuery());
+            while (resultSet.next()) {
+                members.add(readMember(resultSet));
+            }
+        } catch (SQLException e) {
+            pluginLogger.log("unable to load top members: " + e.getMessage());
+        } finally {
+            registry.closeQuietly();
+        }
+        return members;
+    }
+
+    @Override
+    public List<Member> loadMembers(UUID... uuids) {
+        return loadMembers(Arrays.asList(uuids));
+    }
+
+    @Override
+    public boolean saveMembers(Iterable<Member> memberIterable) {
+        Preconditions.checkNotNull(memberIterable, "memberIterable cannot be null");
+        Preconditions.checkState(initialized, "must be initialized");
+        CloseableRegistry registry = new CloseableRegistry();
+        String query = getUpsertQuery("tr_members", Arrays.asList("id"),
+                Arrays.asList("score", "tribe", "tribe_rank", "pvpstate"));
+        Connection connection = null;
+        try {
+            connection = registry.register(getConnection());
+            connection.setAutoCommit(false);
+            PreparedStatement statement = registry.register(connection.prepareStatement(query));
+            int pending = 0;
+            for (Member member : memberIterable) {
+                setUuid(statement, 1, member.getUniqueId());
+                statement.setInt(2, member.getScore());
+                setUuid(statement, 3, member.getTribe());
+                statement.setInt(4, member.getRank() != null ? member.getRank().ordinal() :
+                        Tribe.Rank.GUEST.ordinal());
+                statement.setInt(5, member.getPvpState().ordinal());
+                statement.addBatch();
+                pending = flushBatch(statement, pending + 1);
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            rollbackQuietly(connection);
+            pluginLogger.log("unable to save members: " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public List<Tribe> loadTribes() {
+        final List<Tribe> tribes = new ArrayList<>();
+        forEachTribe(new DataVisitor<Tribe>() {
+            @Override
+            public void visit(Tribe row) {
+                tribes.add(row);
+            }
+        });
+        return tribes;
+    }
+
+    @Override
+    public boolean forEachTribe(DataVisitor<Tribe> visitor) {
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkNotNull(visitor, "visitor cannot be null");
+        String query = "SELECT * FROM tr_tribes";
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection connection = registry.register(getConnection());
+            // worlds of homes set on other servers since startup
+            worldDictionary.load(connection);
+            Statement statement = registry.register(createStreamingStatement(connection));
+            ResultSet resultSet = registry.register(statement.executeQuery(query));
+            while (resultSet.next()) {
+                visitor.visit(readTribe(resultSet));
+            }
+            return true;
+        } catch (SQLException e) {
+            pluginLogger.log("unable to load tribes: " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public List<Tribe> loadTribes(Iterable<UUID> uuids) {
+        List<Tribe> tribes = new ArrayList<>();
+        Preconditions.checkState(initialized, "must be initialized");
+        List<UUID> keys = new ArrayList<>(new LinkedHashSet<>(toList(uuids)));
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection connection = registry.register(getConnection());
+            if (!keys.isEmpty()) {
+                worldDictionary.load(connection);
+            }
+            for (int from = 0; from < keys.size(); from += maxParameters) {
+                List<UUID> chunk = keys.subList(from, Math.min(keys.size(), from + maxParameters));
+                String query = "SELECT * FROM tr_tribes WHERE id IN (" + repeat("?", ",", chunk.size()) + ")";
+                CloseableRegistry chunkRegistry = new CloseableRegistry();
+                try {
+                    PreparedStatement statement = chunkRegistry.register(connection.prepareStatement(query));
+                    bindUuids(statement, chunk);
+                    ResultSet resultSet = chunkRegistry.register(statement.executeQuery());
+                    while (resultSet.next()) {
+                        tribes.add(readTribe(resultSet));
+                    }
+                } finally {
+                    chunkRegistry.closeQuietly();
+                }
+            }
+        } catch (SQLException e) {
+            pluginLogger.log("unable to load tribes: " + e.getMessage());
+        } finally {
+            registry.closeQuietly();
+        }
+        return tribes;
+    }
+
+    @Override
+    public List<Tribe> loadTribes(UUID... uuids) {
+        return loadTribes(Arrays.asList(uuids));
+    }
+
+    @Override
+    public boolean saveTribes(Iterable<Tribe> tribeIterable) {
+        Preconditions.checkNotNull(tribeIterable);
+        Preconditions.checkState(initialized, "must be initialized");
+        String query = getUpsertQuery("tr_tribes", Arrays.asList("id"), Arrays.asList("owner", "name", "level",
+                "home_world", "home_x", "home_y", "home_z", "home_pitch", "home_yaw"));
+        CloseableRegistry registry = new CloseableRegistry();
+        Connection connection = null;
+        try {
+            connection = registry.register(getConnection());
+            for (Tribe tribe : tribeIterable) {
+                if (tribe.getHome() != null) {
+                    worldDictionary.getId(connection, tribe.getHome().getWorld().getName());
+                }
+            }
+            connection.setAutoCommit(false);
+            PreparedStatement statement = registry.register(connection.prepareStatement(query));
+            int pending = 0;
+            for (Tribe tribe : tribeIterable) {
+                if (!tribe.isValidated()) {
+                    plugin.debug("not saving tribe " + tribe.getName() + " due to not being validated");
+                    continue;
+                }
+                setUuid(statement, 1, tribe.getUniqueId());
+                setUuid(statement, 2, tribe.getOwner());
+                statement.setString(3, tribe.getName());
+                statement.setInt(4, tribe.getLevel().ordinal());
+                setHome(connection, statement, 5, tribe.getHome());
+                statement.addBatch();
+                pending = flushBatch(statement, pending + 1);
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            rollbackQuietly(connection);
+            pluginLogger.log("unable to save tribes: " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public boolean deleteCells(Iterable<Vec2> vec2s) {
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkNotNull(vec2s, "vec2s cannot be null");
+        String query = "DELETE FROM tr_cells WHERE world = ? AND x = ? AND z = ?";
+        CloseableRegistry registry = new CloseableRegistry();
+        Connection connection = null;
+        try {
+            connection = registry.register(getConnection());
+            connection.setAutoCommit(false);
+            PreparedStatement statement = registry.register(connection.prepareStatement(query));
+            int pending = 0;
+            for (Vec2 vec2 : vec2s) {
+                Integer worldId = worldDictionary.findId(connection, vec2.getWorld().getName());
+                if (worldId == null) {
+                    // nothing of this world was ever stored
+                    continue;
+                }
+                statement.setInt(1, worldId);
+                statement.setInt(2, vec2.getX());
+                statement.setInt(3, vec2.getZ());
+                statement.addBatch();
+                pending = flushBatch(statement, pending + 1);
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            rollbackQuietly(connection);
+            pluginLogger.log("unable to delete cells: " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public boolean deleteMembers(Iterable<UUID> uuids) {
+        return deleteById("tr_members", uuids);
+    }
+
+    @Override
+    public boolean deleteTribes(Iterable<UUID> uuids) {
+        return deleteById("tr_tribes", uuids);
+    }
+
+    @Override
+    public boolean compact() {
+        Preconditions.checkState(initialized, "must be initialized");
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection connection = registry.register(getConnection());
+            Statement statement = registry.register(connection.createStatement());
+            compact(statement);
+            return true;
+        } catch (SQLException e) {
+            pluginLogger.log("unable to compact the database: " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    @Override
+    public boolean backup(File target) {
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkNotNull(target, "target cannot be null");
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Connection connection = registry.register(getConnection());
+            Statement statement = registry.register(connection.createStatement());
+            backup(statement, target);
+            return true;
+        } catch (SQLException e) {
+            pluginLogger.log("unable to back up the database: " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    private boolean deleteById(String table, Iterable<UUID> uuids) {
+        Preconditions.checkState(initialized, "must be initialized");
+        Preconditions.checkNotNull(uuids, "uuids cannot be null");
+        String query = "DELETE FROM " + table + " WHERE id = ?";
+        CloseableRegistry registry = new CloseableRegistry();
+        Connection connection = null;
+        try {
+            connection = registry.register(getConnection());
+            connection.setAutoCommit(false);
+            PreparedStatement statement = registry.register(connection.prepareStatement(query));
+            int pending = 0;
+            for (UUID uuid : uuids) {
+                setUuid(statement, 1, uuid);
+                statement.addBatch();
+                pending = flushBatch(statement, pending + 1);
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            rollbackQuietly(connection);
+            pluginLogger.log("unable to delete from " + table + ": " + e.getMessage());
+            return false;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    private void addCell(Set<Cell> cells, ResultSet rs) throws SQLException {
+        Cell cell = readCell(rs);
+        if (cell != null) {
+            cells.add(cell);
+        }
+    }
+
+    private Cell readCell(ResultSet rs) throws SQLException {
+        World world = worldDictionary.getWorld(rs.getInt("world"));
+        if (world == null) {
+            // cells of worlds that aren't loaded stay in the database untouched
+            return null;
+        }
+        Vec2 vec2 = Vec2.fromCoordinates(world, rs.getInt("x"), rs.getInt("z"));
+        UUID owner = fromBytes(rs.getBytes("owner"));
+        return owner == null ? new Cell(vec2) : new Cell(vec2, owner);
+    }
+
+    private Member readMember(ResultSet resultSet) throws SQLException {
+        Member member = new Member(fromBytes(resultSet.getBytes("id")));
+        member.setScore(resultSet.getInt("score"));
+        member.setTribe(fromBytes(resultSet.getBytes("tribe")));
+        member.setRank(Tribe.Rank.values()[resultSet.getInt("tribe_rank")]);
+        member.setPvpState(Member.PvpState.values()[resultSet.getInt("pvpstate")]);
+        return member;
+    }
+
+    private Tribe readTribe(ResultSet resultSet) throws SQLException {
+        Tribe tribe = new Tribe(fromBytes(resultSet.getBytes("id")));
+        tribe.setOwner(fromBytes(resultSet.getBytes("owner")));
+        tribe.setName(resultSet.getString("name"));
+        tribe.setLevel(Tribe.Level.values()[resultSet.getInt("level")]);
+        int homeWorld = resultSet.getInt("home_world");
+        if (!resultSet.wasNull()) {
+            World world = worldDictionary.getWorld(homeWorld);
+            if (world != null) {
+                tribe.setHome(Vec3f.fromCoordinates(world, resultSet.getInt("home_x"), resultSet.getInt("home_y"),
+                        resultSet.getInt("home_z"), resultSet.getFloat("home_pitch"),
+                        resultSet.getFloat("home_yaw")));
+            }
+        }
+        tribe.setValidated(true);
+        return tribe;
+    }
+
+    private void setHome(Connection connection, PreparedStatement statement, int index, Vec3f home)
+            throws SQLException {
+        if (home == null) {
+            for (int i = 0; i < 6; i++) {
+                statement.setNull(index + i, i < 4 ? Types.INTEGER : Types.REAL);
+            }
+            return;
+        }
+        statement.setInt(index, worldDictionary.getId(connection, home.getWorld().getName()));
+        statement.setInt(index + 1, home.getX());
+        statement.setInt(index + 2, home.getY());
+        statement.setInt(index + 3, home.getZ());
+        statement.setFloat(index + 4, home.getPitch());
+        statement.setFloat(index + 5, home.getYaw());
+    }
+
+    static void setUuid(PreparedStatement statement, int index, UUID uuid) throws SQLException {
+        if (uuid == null) {
+            statement.setNull(index, Types.BINARY);
+        } else {
+            statement.setBytes(index, toBytes(uuid));
+        }
+    }
+
+    static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    static UUID fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void bindUuids(PreparedStatement statement, List<UUID> uuids) throws SQLException {
+        for (int i = 0; i < uuids.size(); i++) {
+            setUuid(statement, i + 1, uuids.get(i));
+        }
+    }
+
+    protected static String repeat(String clause, String separator, Iterable<String> values) {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(separator);
+            }
+            builder.append(clause.replace("%s", value));
+        }
+        return builder.toString();
+    }
+
+    private static <T> List<T> toList(Iterable<T> iterable) {
+        List<T> list = new ArrayList<>();
+        for (T t : iterable) {
+            list.add(t);
+        }
+        return list;
+    }
+
+    protected static String repeat(String clause, String separator, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(clause);
+        }
+        return builder.toString();
+    }
+
+    int flushBatch(PreparedStatement statement, int pending) throws SQLException {
+        if (pending < batchSize) {
+            return pending;
+        }
+        statement.executeBatch();
+        return 0;
+    }
+
+    void rollbackQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            pluginLogger.log("unable to roll back: " + e.getMessage());
+        }
+    }
+
+    private Connection getConnection() {
+        if (connectionPool == null) {
+            return null;
+        }
+        try {
+            return connectionPool.borrow();
+        } catch (SQLException e) {
+            pluginLogger.log("unable to get a connection: " + e.getMessage());
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,401 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import org.bukkit.World;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A {@link DataStorage} that times every call to another DataStorage and records it in {@link StorageMetrics}.
+ * Failed saves, deletes and scans count as errors. Loads report failures by coming back empty, so they only ever
+ * count as errors when they throw. The time of a {@code forEach} scan includes the time spent in its visitor.
+ */
+public final class MeteredDataStorage implements DataStorage {
+
+    private final DataStorage delegate;
+    private final OperationMetrics loadCells;
+    private final OperationMetrics loadCellsByKey;
+    private final OperationMetrics loadCellsInArea;
+    private final OperationMetrics loadRegionClaims;
+    private final OperationMetrics saveCells;
+    private final OperationMetrics deleteCells;
+    private final OperationMetrics loadMembers;
+    private final OperationMetrics loadMembersByKey;
+    private final OperationMetrics loadTopMembers;
+    private final OperationMetrics saveMembers;
+    private final OperationMetrics deleteMembers;
+    private final OperationMetrics loadTribes;
+    private final OperationMetrics loadTribesByKey;
+    private final OperationMetrics saveTribes;
+    private final OperationMetrics deleteTribes;
+    private final OperationMetrics compact;
+    private final OperationMetrics backup;
+
+    public MeteredDataStorage(DataStorage delegate, StorageMetrics metrics) {
+        Preconditions.checkNotNull(delegate, "delegate cannot be null");
+        Preconditions.checkNotNull(metrics, "metrics cannot be null");
+        this.delegate = delegate;
+        this.loadCells = metrics.get("loadCells");
+        this.loadCellsByKey = metrics.get("loadCellsByKey");
+        this.loadCellsInArea = metrics.get("loadCellsInArea");
+        this.loadRegionClaims = metrics.get("loadRegionClaims");
+        this.saveCells = metrics.get("saveCells");
+        this.deleteCells = metrics.get("deleteCells");
+        this.loadMembers = metrics.get("loadMembers");
+        this.loadMembersByKey = metrics.get("loadMembersByKey");
+        this.loadTopMembers = metrics.get("loadTopMembers");
+        this.saveMembers = metrics.get("saveMembers");
+        this.deleteMembers = metrics.get("deleteMembers");
+        this.loadTribes = metrics.get("loadTribes");
+        this.loadTribesByKey = metrics.get("loadTribesByKey");
+        this.saveTribes = metrics.get("saveTribes");
+        this.deleteTribes = metrics.get("deleteTribes");
+        this.compact = metrics.get("compact");
+        this.backup = metrics.get("backup");
+    }
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public int getParallelism() {
+        return delegate.getParallelism();
+    }
+
+    @Override
+    public Set<Cell> loadCells() {
+        long start = System.nanoTime();
+        Set<Cell> cells = null;
+        try {
+            cells = delegate.loadCells();
+            return cells;
+        } finally {
+            record(loadCells, start, cells);
+        }
+    }
+
+    @Override
+    public boolean forEachCell(DataVisitor<Cell> visitor) {
+        long start = System.nanoTime();
+        CountingVisitor<Cell> counting = new CountingVisitor<>(visitor);
+        boolean success = false;
+        try {
+            success = delegate.forEachCell(counting);
+            return success;
+        } finally {
+            record(loadCells, start, counting.rows, success);
+        }
+    }
+
+    @Override
+    public Set<Cell> loadCells(Iterable<Vec2> vec2s) {
+        long start = System.nanoTime();
+        Set<Cell> cells = null;
+        try {
+            cells = delegate.loadCells(vec2s);
+            return cells;
+        } finally {
+            record(loadCellsByKey, start, cells);
+        }
+    }
+
+    @Override
+    public Set<Cell> loadCells(Vec2... vec2s) {
+        return loadCells(Arrays.asList(vec2s));
+    }
+
+    @Override
+    public Set<Cell> loadCells(World world, int minX, int minZ, int maxX, int maxZ) {
+        long start = System.nanoTime();
+        Set<Cell> cells = null;
+        try {
+            cells = delegate.loadCells(world, minX, minZ, maxX, maxZ);
+            return cells;
+        } finally {
+            record(loadCellsInArea, start, cells);
+        }
+    }
+
+    @Override
+    public Map<Vec2, Map<UUID, Integer>> loadRegionClaims() {
+        long start = System.nanoTime();
+        Map<Vec2, Map<UUID, Integer>> claims = null;
+        try {
+            claims = delegate.loadRegionClaims();
+            return claims;
+        } finally {
+            record(loadRegionClaims, start, claims != null ? claims.size() : 0, claims != null);
+        }
+    }
+
+    @Override
+    public boolean saveCells(Iterable<Cell> cellIterable) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.saveCells(cellIterable);
+            return success;
+        } finally {
+            record(saveCells, start, count(cellIterable), success);
+        }
+    }
+
+    @Override
+    public boolean deleteCells(Iterable<Vec2> vec2s) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.deleteCells(vec2s);
+            return success;
+        } finally {
+            record(deleteCells, start, count(vec2s), success);
+        }
+    }
+
+    @Override
+    public List<Member> loadMembers() {
+        long start = System.nanoTime();
+        List<Member> members = null;
+        try {
+            members = delegate.loadMembers();
+            return members;
+        } finally {
+            record(loadMembers, start, members);
+        }
+    }
+
+    @Override
+    public boolean forEachMember(DataVisitor<Member> visitor) {
+        long start = System.nanoTime();
+        CountingVisitor<Member> counting = new CountingVisitor<>(visitor);
+        boolean success = false;
+        try {
+            success = delegate.forEachMember(counting);
+            return success;
+        } finally {
+            record(loadMembers, start, counting.rows, success);
+        }
+    }
+
+    @Override
+    public List<Member> loadMembers(Iterable<UUID> uuids) {
+        long start = System.nanoTime();
+        List<Member> members = null;
+        try {
+            members = delegate.loadMembers(uuids);
+            return members;
+        } finally {
+            record(loadMembersByKey, start, members);
+        }
+    }
+
+    @Override
+    public List<Member> loadMembers(UUID... uuids) {
+        return loadMembers(Arrays.asList(uuids));
+    }
+
+    @Override
+    public List<Member> loadTopMembers(int offset, int limit) {
+        long start = System.nanoTime();
+        List<Member> members = null;
+        try {
+            members = delegate.loadTopMembers(offset, limit);
+            return members;
+        } finally {
+            record(loadTopMembers, start, members);
+        }
+    }
+
+    @Override
+    public boolean saveMembers(Iterable<Member> memberIterable) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.saveMembers(memberIterable);
+            return success;
+        } finally {
+            record(saveMembers, start, count(memberIterable), success);
+        }
+    }
+
+    @Override
+    public boolean deleteMembers(Iterable<UUID> uuids) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.deleteMembers(uuids);
+            return success;
+        } finally {
+            record(deleteMembers, start, count(uuids), success);
+        }
+    }
+
+    @Override
+    public List<Tribe> loadTribes() {
+        long start = System.nanoTime();
+        List<Tribe> tribes = null;
+        try {
+            tribes = delegate.loadTribes();
+            return tribes;
+        } finally {
+            record(loadTribes, start, tribes);
+        }
+    }
+
+    @Override
+    public boolean forEachTribe(DataVisitor<Tribe> visitor) {
+        long start = System.nanoTime();
+        CountingVisitor<Tribe> counting = new CountingVisitor<>(visitor);
+        boolean success = false;
+        try {
+            success = delegate.forEachTribe(counting);
+            return success;
+        } finally {
+            record(loadTribes, start, counting.rows, success);
+        }
+    }
+
+    @Override
+    public List<Tribe> loadTribes(Iterable<UUID> uuids) {
+        long start = System.nanoTime();
+        List<Tribe> tribes = null;
+        try {
+            tribes = delegate.loadTribes(uuids);
+            return tribes;
+        } finally {
+            record(loadTribesByKey, start, tribes);
+        }
+    }
+
+    @Override
+    public List<Tribe> loadTribes(UUID... uuids) {
+        return loadTribes(Arrays.asList(uuids));
+    }
+
+    @Override
+    public boolean saveTribes(Iterable<Tribe> tribeIterable) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.saveTribes(tribeIterable);
+            return success;
+        } finally {
+            record(saveTribes, start, count(tribeIterable), success);
+        }
+    }
+
+    @Override
+    public boolean deleteTribes(Iterable<UUID> uuids) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.deleteTribes(uuids);
+            return success;
+        } finally {
+            record(deleteTribes, start, count(uuids), success);
+        }
+    }
+
+    @Override
+    public boolean compact() {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.compact();
+            return success;
+        } finally {
+            record(compact, start, 0, success);
+        }
+    }
+
+    @Override
+    public boolean backup(File target) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.backup(target);
+            return success;
+        } finally {
+            record(backup, start, 0, success);
+        }
+    }
+
+    private static void record(OperationMetrics metrics, long start, Collection<?> result) {
+        record(metrics, start, result != null ? result.size() : 0, result != null);
+    }
+
+    private static void record(OperationMetrics metrics, long start, long rows, boolean success) {
+        metrics.record(System.nanoTime() - start, rows, success);
+    }
+
+    private static long count(Iterable<?> iterable) {
+        if (iterable == null) {
+            return 0;
+        }
+        if (iterable instanceof Collection) {
+            return ((Collection<?>) iterable).size();
+        }
+        long count = 0;
+        for (Object ignored : iterable) {
+            count++;
+        }
+        return count;
+    }
+
+    private static final class CountingVisitor<T> implements DataVisitor<T> {
+
+        private final DataVisitor<T> visitor;
+        private long rows;
+
+        private CountingVisitor(DataVisitor<T> visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void visit(T row) {
+            rows++;
+            visitor.visit(row);
+        }
+
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.tribes.TribesPlugin;
+import com.tealcube.minecraft.bukkit.tribes.managers.ClaimIndex;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+public final class MysqlDataStorage extends JdbcDataStorage {
+
+    private static final String TR_WORLDS_CREATE = "CREATE TABLE IF NOT EXISTS tr_worlds (id INT NOT NULL " +
+            "AUTO_INCREMENT PRIMARY KEY, name VARCHAR(64) NOT NULL UNIQUE)";
+    private static final String TR_CELLS_CREATE = "CREATE TABLE IF NOT EXISTS tr_cells (world INT NOT NULL, " +
+            "x INT NOT NULL, z INT NOT NULL, owner BINARY(16), PRIMARY KEY (world, x, z))";
+    private static final String TR_MEMBERS_CREATE = "CREATE TABLE IF NOT EXISTS tr_members (id BINARY(16) NOT " +
+            "NULL PRIMARY KEY, score INT NOT NULL, tribe BINARY(16), tribe_rank TINYINT NOT NULL, " +
+            "pvpstate TINYINT NOT NULL, INDEX tr_members_score (score))";
+    private static final String TR_TRIBES_CREATE = "CREATE TABLE IF NOT EXISTS tr_tribes (id BINARY(16) NOT NULL " +
+            "PRIMARY KEY, owner BINARY(16) NOT NULL, name VARCHAR(64) NOT NULL UNIQUE, level TINYINT NOT NULL, " +
+            "home_world INT, home_x INT, home_y INT, home_z INT, home_pitch FLOAT, home_yaw FLOAT)";
+    private boolean mysqlDriver;
+
+    public MysqlDataStorage(TribesPlugin plugin) {
+        super(plugin, "mysql");
+    }
+
+    @Override
+    protected ConnectionPool createConnectionPool() throws SQLException {
+        final String url = getConnectionURI();
+        mysqlDriver = url.startsWith("jdbc:mysql:");
+        if (mysqlDriver) {
+            try {
+                Class.forName("com.mysql.jdbc.Driver");
+            } catch (ClassNotFoundException e) {
+                getPlugin().getPluginLogger().log(Level.INFO, "unable to find mysql driver");
+                return null;
+            }
+        }
+
+        int poolSize = Math.max(1, getPlugin().getSettings().getInt("db.mysql-pool-size"));
+        setBatchSize(getPlugin().getSettings().getInt("db.mysql-batch-size"));
+        setMaxParameters(Math.max(3, getPlugin().getSettings().getInt("db.mysql-max-parameters")));
+        final String username = getPlugin().getSettings().getString("db.username");
+        final String password = getPlugin().getSettings().getString("db.password");
+
+        return new ConnectionPool(new ConnectionPool.Factory() {
+            @Override
+            public Connection create() throws SQLException {
+                return DriverManager.getConnection(url, username, password);
+            }
+        }, poolSize, 10000L, 2);
+    }
+
+    @Override
+    protected List<String> getCreateTableStatements() {
+        return Arrays.asList(TR_WORLDS_CREATE, TR_CELLS_CREATE, TR_MEMBERS_CREATE, TR_TRIBES_CREATE);
+    }
+
+    @Override
+    protected String getUpsertQuery(String table, List<String> keys, List<String> columns) {
+        List<String> all = new ArrayList<>(keys);
+        all.addAll(columns);
+        return "INSERT INTO " + table + " (" + repeat("%s", ", ", all) + ") VALUES (" +
+                repeat("?", ",", all.size()) + ") ON DUPLICATE KEY UPDATE " + repeat("%s=VALUES(%s)", ", ", columns);
+    }
+
+    @Override
+    protected Statement createStreamingStatement(Connection connection) throws SQLException {
+        if (!mysqlDriver) {
+            // other drivers behind db.mysql-url reject a negative fetch size
+            return super.createStreamingStatement(connection);
+        }
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        // the driver buffers whole results unless asked for this exact fetch size
+        statement.setFetchSize(Integer.MIN_VALUE);
+        return statement;
+    }
+
+    @Override
+    protected String getRegionExpression(String column) {
+        // >> on a negative INT yields a huge unsigned value in MySQL, and a decimal divisor keeps databases that
+        // divide integers by truncating from rounding negative regions towards zero
+        return "FLOOR(" + column + " / " + (1 << ClaimIndex.REGION_SHIFT) + ".0)";
+    }
+
+    private String getConnectionURI() {
+        String url = getPlugin().getSettings().getString("db.mysql-url");
+        if (url != null && !url.isEmpty()) {
+            return url;
+        }
+        // lets the driver fold each batch into multi-row inserts instead of one round trip per row
+        return "jdbc:mysql://" + getPlugin().getSettings().getString("db.host") + ":" +
+                getPlugin().getSettings().getInt("db.port") + "/" +
+                getPlugin().getSettings().getString("db.database") +
+                "?rewriteBatchedStatements=true&useUnicode=true&characterEncoding=utf8";
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Call, error and row counters plus a duration histogram for a single storage operation. Percentiles are taken over
+ * the most recent calls only, so they follow the current load rather than the whole uptime.
+ */
+public final class OperationMetrics implements OperationMetricsMBean {
+
+    private static final int SAMPLES = 1024;
+    private final String name;
+    private final long[] samples;
+    private int next;
+    private int sampleCount;
+    private long calls;
+    private long errors;
+    private long rows;
+    private long totalNanos;
+    private long maxNanos;
+
+    OperationMetrics(String name) {
+        this.name = name;
+        this.samples = new long[SAMPLES];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records one call of this operation.
+     * @param nanos time the call took
+     * @param rowCount number of rows read or written
+     * @param success false if the call failed
+     */
+    public synchronized void record(long nanos, long rowCount, boolean success) {
+        calls++;
+        if (!success) {
+            errors++;
+        }
+        rows += rowCount;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        samples[next] = nanos;
+        next = (next + 1) % SAMPLES;
+        sampleCount = Math.min(sampleCount + 1, SAMPLES);
+    }
+
+    @Override
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    @Override
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    @Override
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    @Override
+    public synchronized double getAverageMillis() {
+        return calls == 0 ? 0 : toMillis(totalNanos / calls);
+    }
+
+    @Override
+    public synchronized double getMaxMillis() {
+        return toMillis(maxNanos);
+    }
+
+    @Override
+    public double getP50Millis() {
+        return getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return getPercentileMillis(0.99);
+    }
+
+    @Override
+    public synchronized double getRowsPerSecond() {
+        return totalNanos == 0 ? 0 : rows * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos;
+    }
+
+    /**
+     * Gets the duration that the given fraction of the recent calls did not exceed.
+     * @param percentile fraction between 0 and 1
+     * @return duration in milliseconds, 0 if there were no calls
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (sampleCount == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(samples, sampleCount);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return toMillis(sorted[Math.max(0, Math.min(sorted.length - 1, index))]);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
@@ -0,0 +1,384 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.kern.io.CloseableRegistry;
+import com.tealcube.minecraft.bukkit.shade.apache.commons.lang3.math.NumberUtils;
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Splitter;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Moves a database from the original schema, where every world name and UUID is stored as text and tribe homes are
+ * colon-joined strings, to the compact schema used by {@link JdbcDataStorage}.
+ * <p>
+ * The old tables are renamed to {@code *_v1} and drained into the new tables in chunks, each chunk inserted and
+ * deleted in one transaction. An interrupted migration simply carries on from the remaining rows on the next start.
+ * The schema version is kept in {@code tr_meta}.
+ */
+final class SchemaMigrator {
+
+    static final int CURRENT_VERSION = 2;
+    private static final int MIGRATING = 1;
+    private static final List<String> TABLES = Arrays.asList("tr_cells", "tr_members", "tr_tribes");
+    private static final String SUFFIX = "_v1";
+    private final JdbcDataStorage storage;
+    private final Connection connection;
+
+    SchemaMigrator(JdbcDataStorage storage, Connection connection) {
+        this.storage = storage;
+        this.connection = connection;
+    }
+
+    /**
+     * Sets the old tables aside if this database has never been migrated. Must run before the current tables are
+     * created.
+     * @throws SQLException if the tables cannot be inspected or renamed
+     */
+    void prepare() throws SQLException {
+        execute("CREATE TABLE IF NOT EXISTS tr_meta (name VARCHAR(32) NOT NULL PRIMARY KEY, value VARCHAR(64) " +
+                "NOT NULL)");
+        if (readVersion() != 0) {
+            return;
+        }
+        boolean legacy = false;
+        for (String table : TABLES) {
+            legacy |= tableExists(table) || tableExists(table + SUFFIX);
+        }
+        if (!legacy) {
+            // a fresh database, recorded before any table exists so it can't be mistaken for an old one later
+            writeVersion(CURRENT_VERSION);
+            return;
+        }
+        for (String table : TABLES) {
+            if (tableExists(table) && !tableExists(table + SUFFIX)) {
+                execute("ALTER TABLE " + table + " RENAME TO " + table + SUFFIX);
+            }
+        }
+        writeVersion(MIGRATING);
+    }
+
+    /**
+     * Copies whatever is left in the old tables into the current ones and drops the old tables once they are empty.
+     * @return true if old tables were dropped
+     * @throws SQLException if a chunk cannot be migrated
+     */
+    boolean migrate() throws SQLException {
+        if (readVersion() == MIGRATING) {
+            storage.getStorageLogger().log("migrating to schema version " + CURRENT_VERSION);
+            int cells = 0;
+            int members = 0;
+            int tribes = 0;
+            if (tableExists("tr_cells" + SUFFIX)) {
+                for (int moved = moveCells(); moved > 0; moved = moveCells()) {
+                    cells += moved;
+                }
+            }
+            if (tableExists("tr_members" + SUFFIX)) {
+                for (int moved = moveMembers(); moved > 0; moved = moveMembers()) {
+                    members += moved;
+                }
+            }
+            if (tableExists("tr_tribes" + SUFFIX)) {
+                for (int moved = moveTribes(); moved > 0; moved = moveTribes()) {
+                    tribes += moved;
+                }
+            }
+            writeVersion(CURRENT_VERSION);
+            storage.getStorageLogger().log("migrated " + cells + " cells, " + members + " members and " + tribes +
+                    " tribes");
+        }
+        boolean dropped = false;
+        for (String table : TABLES) {
+            if (tableExists(table + SUFFIX)) {
+                execute("DROP TABLE " + table + SUFFIX);
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    private int moveCells() throws SQLException {
+        List<String> worlds = new ArrayList<>();
+        List<Integer> xs = new ArrayList<>();
+        List<Integer> zs = new ArrayList<>();
+        List<UUID> owners = new ArrayList<>();
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            PreparedStatement select = registry.register(connection.prepareStatement(
+                    "SELECT world, x, z, owner FROM tr_cells" + SUFFIX + " LIMIT ?"));
+            select.setInt(1, storage.getBatchSize());
+            ResultSet rs = registry.register(select.executeQuery());
+            while (rs.next()) {
+                worlds.add(rs.getString("world"));
+                xs.add(rs.getInt("x"));
+                zs.add(rs.getInt("z"));
+                owners.add(parseUuid(rs.getString("owner")));
+            }
+        } finally {
+            registry.closeQuietly();
+        }
+        if (worlds.isEmpty()) {
+            return 0;
+        }
+        for (String world : worlds) {
+            storage.getWorldDictionary().getId(connection, world);
+        }
+        registry = new CloseableRegistry();
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement insert = registry.register(connection.prepareStatement(storage.getUpsertQuery(
+                    "tr_cells", Arrays.asList("world", "x", "z"), Arrays.asList("owner"))));
+            PreparedStatement delete = registry.register(connection.prepareStatement(
+                    "DELETE FROM tr_cells" + SUFFIX + " WHERE world=? AND x=? AND z=?"));
+            for (int i = 0; i < worlds.size(); i++) {
+                insert.setInt(1, storage.getWorldDictionary().getId(connection, worlds.get(i)));
+                insert.setInt(2, xs.get(i));
+                insert.setInt(3, zs.get(i));
+                JdbcDataStorage.setUuid(insert, 4, owners.get(i));
+                insert.addBatch();
+                delete.setString(1, worlds.get(i));
+                delete.setInt(2, xs.get(i));
+                delete.setInt(3, zs.get(i));
+                delete.addBatch();
+            }
+            insert.executeBatch();
+            delete.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            storage.rollbackQuietly(connection);
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+            registry.closeQuietly();
+        }
+        return worlds.size();
+    }
+
+    private int moveMembers() throws SQLException {
+        CloseableRegistry registry = new CloseableRegistry();
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement select = registry.register(connection.prepareStatement(
+                    // every column, as rank is a reserved word on MySQL 8 and would have to be quoted
+                    "SELECT * FROM tr_members" + SUFFIX + " LIMIT ?"));
+            select.setInt(1, storage.getBatchSize());
+            PreparedStatement insert = registry.register(connection.prepareStatement(storage.getUpsertQuery(
+                    "tr_members", Arrays.asList("id"), Arrays.asList("score", "tribe", "tribe_rank", "pvpstate"))));
+            PreparedStatement delete = registry.register(connection.prepareStatement(
+                    "DELETE FROM tr_members" + SUFFIX + " WHERE id=?"));
+            int moved = 0;
+            ResultSet rs = registry.register(select.executeQuery());
+            while (rs.next()) {
+                String id = rs.getString("id");
+                delete.setString(1, id);
+                delete.addBatch();
+                moved++;
+                UUID uuid = parseUuid(id);
+                if (uuid == null) {
+                    storage.getStorageLogger().log("dropping member with malformed id " + id);
+                    continue;
+                }
+                JdbcDataStorage.setUuid(insert, 1, uuid);
+                insert.setInt(2, rs.getInt("score"));
+                JdbcDataStorage.setUuid(insert, 3, parseUuid(rs.getString("tribe")));
+                insert.setInt(4, Tribe.Rank.fromString(rs.getString("rank")).ordinal());
+                insert.setInt(5, rs.getInt("pvpstate"));
+                insert.addBatch();
+            }
+            rs.close();
+            if (moved > 0) {
+                insert.executeBatch();
+                delete.executeBatch();
+            }
+            connection.commit();
+            return moved;
+        } catch (SQLException e) {
+            storage.rollbackQuietly(connection);
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+            registry.closeQuietly();
+        }
+    }
+
+    private int moveTribes() throws SQLException {
+        List<String> ids = new ArrayList<>();
+        List<UUID> owners = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Integer> levels = new ArrayList<>();
+        List<List<String>> homes = new ArrayList<>();
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            PreparedStatement select = registry.register(connection.prepareStatement(
+                    "SELECT id, owner, name, level, home FROM tr_tribes" + SUFFIX + " LIMIT ?"));
+            select.setInt(1, storage.getBatchSize());
+            ResultSet rs = registry.register(select.executeQuery());
+            while (rs.next()) {
+                ids.add(rs.getString("id"));
+                owners.add(parseUuid(rs.getString("owner")));
+                names.add(rs.getString("name"));
+                levels.add(rs.getInt("level"));
+                String home = rs.getString("home");
+                List<String> parts = home == null ? null :
+                        Splitter.on(":").omitEmptyStrings().trimResults().splitToList(home);
+                homes.add(parts != null && parts.size() == 6 ? parts : null);
+            }
+        } finally {
+            registry.closeQuietly();
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        for (List<String> home : homes) {
+            if (home != null) {
+                storage.getWorldDictionary().getId(connection, home.get(0));
+            }
+        }
+        registry = new CloseableRegistry();
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement insert = registry.register(connection.prepareStatement(storage.getUpsertQuery(
+                    "tr_tribes", Arrays.asList("id"), Arrays.asList("owner", "name", "level", "home_world",
+                            "home_x", "home_y", "home_z", "home_pitch", "home_yaw"))));
+            PreparedStatement delete = registry.register(connection.prepareStatement(
+                    "DELETE FROM tr_tribes" + SUFFIX + " WHERE id=?"));
+            boolean inserted = false;
+            for (int i = 0; i < ids.size(); i++) {
+                delete.setString(1, ids.get(i));
+                delete.addBatch();
+                UUID uuid = parseUuid(ids.get(i));
+                if (uuid == null || owners.get(i) == null) {
+                    storage.getStorageLogger().log("dropping tribe with malformed id or owner " + ids.get(i));
+                    continue;
+                }
+                JdbcDataStorage.setUuid(insert, 1, uuid);
+                JdbcDataStorage.setUuid(insert, 2, owners.get(i));
+                insert.setString(3, names.get(i));
+                insert.setInt(4, levels.get(i));
+                List<String> home = homes.get(i);
+                if (home == null) {
+                    for (int column = 5; column <= 10; column++) {
+                        insert.setNull(column, column < 9 ? Types.INTEGER : Types.REAL);
+                    }
+                } else {
+                    insert.setInt(5, storage.getWorldDictionary().getId(connection, home.get(0)));
+                    insert.setInt(6, NumberUtils.toInt(home.get(1)));
+                    insert.setInt(7, NumberUtils.toInt(home.get(2)));
+                    insert.setInt(8, NumberUtils.toInt(home.get(3)));
+                    insert.setFloat(9, NumberUtils.toFloat(home.get(4)));
+                    insert.setFloat(10, NumberUtils.toFloat(home.get(5)));
+                }
+                insert.addBatch();
+                inserted = true;
+            }
+            if (inserted) {
+                insert.executeBatch();
+            }
+            delete.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            storage.rollbackQuietly(connection);
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+            registry.closeQuietly();
+        }
+        return ids.size();
+    }
+
+    private int readVersion() throws SQLException {
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Statement statement = registry.register(connection.createStatement());
+            ResultSet rs = registry.register(statement.executeQuery(
+                    "SELECT value FROM tr_meta WHERE name='schema_version'"));
+            return rs.next() ? NumberUtils.toInt(rs.getString("value")) : 0;
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    private void writeVersion(int version) throws SQLException {
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            PreparedStatement statement = registry.register(connection.prepareStatement(storage.getUpsertQuery(
+                    "tr_meta", Arrays.asList("name"), Arrays.asList("value"))));
+            statement.setString(1, "schema_version");
+            statement.setString(2, String.valueOf(version));
+            statement.executeUpdate();
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    private boolean tableExists(String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        // some databases report unquoted names in upper case
+        for (String name : Arrays.asList(table, table.toUpperCase())) {
+            CloseableRegistry registry = new CloseableRegistry();
+            try {
+                ResultSet rs = registry.register(metaData.getTables(null, null, name, null));
+                if (rs.next()) {
+                    return true;
+                }
+            } finally {
+                registry.closeQuietly();
+            }
+        }
+        return false;
+    }
+
+    private void execute(String sql) throws SQLException {
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Statement statement = registry.register(connection.createStatement());
+            statement.executeUpdate(sql);
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    private static UUID parseUuid(String string) {
+        if (string == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(string);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.facecore.logging.PluginLogger;
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec3f;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact binary image of every cell, member and tribe, written when the plugin shuts down cleanly and read back
+ * through a memory-mapped buffer on the next start. Worlds are stored once in a table and referenced by index,
+ * chunk coordinates are packed into a single long and UUIDs are stored as their two 64-bit halves.
+ */
+public final class SnapshotFile {
+
+    private static final int MAGIC = 0x54524253;
+    private static final int VERSION = 1;
+
+    private SnapshotFile() {
+        // do nothing
+    }
+
+    /**
+     * Writes the given data to {@code file}. The file is written next to its destination first and then renamed,
+     * so a crash never leaves a half-written snapshot behind.
+     * @param file destination
+     * @param cells cells to write
+     * @param members members to write
+     * @param tribes tribes to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, Collection<Cell> cells, Collection<Member> members,
+                             Collection<Tribe> tribes) throws IOException {
+        Preconditions.checkNotNull(file, "file cannot be null");
+        Map<World, Integer> worlds = new LinkedHashMap<>();
+        for (Cell cell : cells) {
+            indexOf(worlds, cell.getLocation().getWorld());
+        }
+        for (Tribe tribe : tribes) {
+            if (tribe.getHome() != null) {
+                indexOf(worlds, tribe.getHome().getWorld());
+            }
+        }
+
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+        BufferedOutputStream buffered = new BufferedOutputStream(new FileOutputStream(temp));
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(worlds.size());
+            for (World world : worlds.keySet()) {
+                writeUUID(out, world.getUID());
+                writeString(out, world.getName());
+            }
+            out.writeInt(cells.size());
+            for (Cell cell : cells) {
+                Vec2 location = cell.getLocation();
+                out.writeShort(worlds.get(location.getWorld()));
+                out.writeLong(((long) location.getX() << 32) | (location.getZ() & 0xffffffffL));
+                writeUUID(out, cell.getOwner());
+            }
+            out.writeInt(members.size());
+            for (Member member : members) {
+                writeUUID(out, member.getUniqueId());
+                out.writeInt(member.getScore());
+                writeUUID(out, member.getTribe());
+                out.writeByte(member.getRank() != null ? member.getRank().ordinal() : Tribe.Rank.GUEST.ordinal());
+                out.writeByte(member.getPvpState().ordinal());
+            }
+            out.writeInt(tribes.size());
+            for (Tribe tribe : tribes) {
+                writeUUID(out, tribe.getUniqueId());
+                writeUUID(out, tribe.getOwner());
+                writeString(out, tribe.getName());
+                out.writeByte(tribe.getLevel().ordinal());
+                out.writeBoolean(tribe.isValidated());
+                Vec3f home = tribe.getHome();
+                out.writeBoolean(home != null);
+                if (home != null) {
+                    out.writeShort(worlds.get(home.getWorld()));
+                    out.writeInt(home.getX());
+                    out.writeInt(home.getY());
+                    out.writeInt(home.getZ());
+                    out.writeFloat(home.getPitch());
+                    out.writeFloat(home.getYaw());
+                }
+            }
+            out.flush();
+            // the checksum covers everything before it, so it bypasses the checked stream
+            new DataOutputStream(buffered).writeInt((int) crc.getValue());
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("unable to replace " + file.getName());
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("unable to move " + temp.getName() + " to " + file.getName());
+        }
+    }
+
+    /**
+     * Maps {@code file} into memory and reads it back. Cells in worlds that are no longer loaded are skipped.
+     * @param file snapshot to read
+     * @param pluginLogger logger for skipped entries
+     * @return snapshot contents, or null if the file is missing, corrupt or from another version
+     */
+    public static DataSnapshot read(File file, PluginLogger pluginLogger) {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < 12 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                pluginLogger.log(Level.WARNING, "ignoring snapshot with an unknown format");
+                return null;
+            }
+            if (checksum(buffer, buffer.limit() - 4) != buffer.getInt(buffer.limit() - 4)) {
+                pluginLogger.log(Level.WARNING, "ignoring snapshot with a bad checksum");
+                return null;
+            }
+            buffer.position(8);
+            return readContents(buffer, pluginLogger);
+        } catch (IOException | RuntimeException e) {
+            pluginLogger.log(Level.WARNING, "unable to read snapshot: " + e.getMessage());
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                    // nothing we can do about it
+                }
+            }
+        }
+    }
+
+    private static DataSnapshot readContents(ByteBuffer buffer, PluginLogger pluginLogger) {
+        DataSnapshot snapshot = new DataSnapshot();
+        World[] worlds = new World[buffer.getInt()];
+        for (int i = 0; i < worlds.length; i++) {
+            UUID uid = readUUID(buffer);
+            String name = readString(buffer);
+            worlds[i] = Bukkit.getWorld(uid);
+            if (worlds[i] == null && name != null) {
+                worlds[i] = Bukkit.getWorld(name);
+            }
+        }
+        int skipped = 0;
+        int cells = buffer.getInt();
+        for (int i = 0; i < cells; i++) {
+            World world = worlds[buffer.getShort()];
+            long packed = buffer.getLong();
+            UUID owner = readUUID(buffer);
+            if (world == null) {
+                skipped++;
+                continue;
+            }
+            Vec2 location = Vec2.fromCoordinates(world, (int) (packed >> 32), (int) packed);
+            snapshot.addCell(owner == null ? new Cell(location) : new Cell(location, owner));
+        }
+        int members = buffer.getInt();
+        for (int i = 0; i < members; i++) {
+            Member member = new Member(readUUID(buffer));
+            member.setScore(buffer.getInt());
+            member.setTribe(readUUID(buffer));
+            member.setRank(Tribe.Rank.values()[buffer.get()]);
+            member.setPvpState(Member.PvpState.values()[buffer.get()]);
+            snapshot.addMember(member);
+        }
+        int tribes = buffer.getInt();
+        for (int i = 0; i < tribes; i++) {
+            Tribe tribe = new Tribe(readUUID(buffer));
+            tribe.setOwner(readUUID(buffer));
+            tribe.setName(readString(buffer));
+            tribe.setLevel(Tribe.Level.values()[buffer.get()]);
+            tribe.setValidated(buffer.get() != 0);
+            if (buffer.get() != 0) {
+                World world = worlds[buffer.getShort()];
+                int x = buffer.getInt();
+                int y = buffer.getInt();
+                int z = buffer.getInt();
+                float pitch = buffer.getFloat();
+                float yaw = buffer.getFloat();
+                if (world != null) {
+                    tribe.setHome(Vec3f.fromCoordinates(world, x, y, z, pitch, yaw));
+                }
+            }
+            snapshot.addTribe(tribe);
+        }
+        if (skipped > 0) {
+            pluginLogger.log(Level.WARNING, "skipped " + skipped + " cells in worlds that are not loaded");
+        }
+        return snapshot;
+    }
+
+    private static int checksum(ByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        int remaining = length;
+        while (remaining > 0) {
+            int read = Math.min(chunk.length, remaining);
+            view.get(chunk, 0, read);
+            crc.update(chunk, 0, read);
+            remaining -= read;
+        }
+        return (int) crc.getValue();
+    }
+
+    private static int indexOf(Map<World, Integer> worlds, World world) {
+        Integer index = worlds.get(world);
+        if (index == null) {
+            index = worlds.size();
+            worlds.put(world, index);
+        }
+        return index;
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeBoolean(uuid != null);
+        out.writeLong(uuid != null ? uuid.getMostSignificantBits() : 0L);
+        out.writeLong(uuid != null ? uuid.getLeastSignificantBits() : 0L);
+    }
+
+    private static UUID readUUID(ByteBuffer buffer) {
+        boolean present = buffer.get() != 0;
+        long most = buffer.getLong();
+        long least = buffer.getLong();
+        return present ? new UUID(most, least) : null;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeShort(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.facecore.logging.PluginLogger;
+import com.tealcube.minecraft.bukkit.shade.google.common.base.Preconditions;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * The {@link OperationMetrics} of every storage operation, by name.
+ */
+public final class StorageMetrics {
+
+    private static final String DOMAIN = "com.tealcube.minecraft.bukkit.tribes";
+    private final Map<String, OperationMetrics> operations;
+    private final List<ObjectName> registered;
+
+    public StorageMetrics() {
+        this.operations = new LinkedHashMap<>();
+        this.registered = new ArrayList<>();
+    }
+
+    /**
+     * Gets the metrics of an operation, creating them the first time the operation is named.
+     * @param name name of the operation
+     * @return metrics of the operation
+     */
+    public synchronized OperationMetrics get(String name) {
+        Preconditions.checkNotNull(name, "name cannot be null");
+        OperationMetrics metrics = operations.get(name);
+        if (metrics == null) {
+            metrics = new OperationMetrics(name);
+            operations.put(name, metrics);
+        }
+        return metrics;
+    }
+
+    public synchronized Collection<OperationMetrics> getOperations() {
+        return Collections.unmodifiableCollection(new ArrayList<>(operations.values()));
+    }
+
+    /**
+     * Publishes every operation known so far as an MBean on the platform MBean server.
+     * @param pluginLogger logger for registration failures
+     */
+    public synchronized void registerMBeans(PluginLogger pluginLogger) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (OperationMetrics metrics : operations.values()) {
+            try {
+                ObjectName name = new ObjectName(DOMAIN + ":type=Storage,operation=" + metrics.getName());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(metrics, name);
+                    registered.add(name);
+                }
+            } catch (JMException e) {
+                pluginLogger.log(Level.WARNING, "unable to register metrics for " + metrics.getName() + ": " +
+                        e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ignored) {
+                // already gone
+            }
+        }
+        registered.clear();
+    }
+
+}
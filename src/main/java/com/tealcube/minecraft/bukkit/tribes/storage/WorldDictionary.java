@@ -0,0 +1,170 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.kern.io.CloseableRegistry;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps world names to the small integer ids stored in place of them by the {@code tr_worlds} table. Ids are handed
+ * out by the database on first use and never change, so servers sharing a database agree on them.
+ * <p>
+ * Another server sharing the database can store a world at any time. Lookups by name go back to the table when the
+ * name isn't known here, and reads that resolve ids should {@link #load(Connection)} before they start.
+ */
+public final class WorldDictionary {
+
+    private final Map<String, Integer> ids;
+    private final Map<Integer, String> names;
+
+    public WorldDictionary() {
+        this.ids = new HashMap<>();
+        this.names = new HashMap<>();
+    }
+
+    /**
+     * Replaces the contents of this dictionary with the stored {@code tr_worlds} rows. Ids never change, so this only
+     * ever adds worlds.
+     * @param connection connection to read with
+     * @throws SQLException if the table cannot be read
+     */
+    public synchronized void load(Connection connection) throws SQLException {
+        ids.clear();
+        names.clear();
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            Statement statement = registry.register(connection.createStatement());
+            ResultSet rs = registry.register(statement.executeQuery("SELECT id, name FROM tr_worlds"));
+            while (rs.next()) {
+                ids.put(rs.getString("name"), rs.getInt("id"));
+                names.put(rs.getInt("id"), rs.getString("name"));
+            }
+        } finally {
+            registry.closeQuietly();
+        }
+    }
+
+    /**
+     * Returns the id of a world, storing a new one if the world has never been seen. Must not be called inside a
+     * transaction that might be rolled back.
+     * @param connection connection to store new ids with
+     * @param name world name
+     * @return world id
+     * @throws SQLException if a new id cannot be stored
+     */
+    public synchronized int getId(Connection connection, String name) throws SQLException {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            PreparedStatement select = registry.register(connection.prepareStatement(
+                    "SELECT id FROM tr_worlds WHERE name=?"));
+            select.setString(1, name);
+            // another server may have stored the world since the dictionary was loaded
+            id = readId(select);
+            if (id == null) {
+                PreparedStatement insert = registry.register(connection.prepareStatement(
+                        "INSERT INTO tr_worlds (name) VALUES (?)"));
+                insert.setString(1, name);
+                try {
+                    insert.executeUpdate();
+                } catch (SQLException e) {
+                    // most likely another server stored it first, the name is unique so the select below tells
+                }
+                id = readId(select);
+            }
+        } finally {
+            registry.closeQuietly();
+        }
+        if (id == null) {
+            throw new SQLException("unable to store world " + name);
+        }
+        ids.put(name, id);
+        names.put(id, name);
+        return id;
+    }
+
+    private static Integer readId(PreparedStatement select) throws SQLException {
+        ResultSet rs = select.executeQuery();
+        try {
+            return rs.next() ? rs.getInt("id") : null;
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Returns the id of a world without storing anything.
+     * @param connection connection to read {@code tr_worlds} with if the world isn't known yet, must not have a
+     * result set open
+     * @param name world name
+     * @return world id, or null if the world has never been stored
+     * @throws SQLException if the table cannot be read
+     */
+    public synchronized Integer findId(Connection connection, String name) throws SQLException {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        CloseableRegistry registry = new CloseableRegistry();
+        try {
+            PreparedStatement select = registry.register(connection.prepareStatement(
+                    "SELECT id FROM tr_worlds WHERE name=?"));
+            select.setString(1, name);
+            id = readId(select);
+        } finally {
+            registry.closeQuietly();
+        }
+        if (id != null) {
+            ids.put(name, id);
+            names.put(id, name);
+        }
+        return id;
+    }
+
+    public synchronized String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Resolves a world id to a loaded world.
+     * @param id world id
+     * @return world, or null if the id is unknown or the world is not loaded
+     */
+    public World getWorld(int id) {
+        String name = getName(id);
+        return name != null ? Bukkit.getWorld(name) : null;
+    }
+
+}
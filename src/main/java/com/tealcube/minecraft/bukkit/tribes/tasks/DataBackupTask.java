@@ -0,0 +1,178 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.tasks;
+
+import com.tealcube.minecraft.bukkit.facecore.utilities.IOUtils;
+import com.tealcube.minecraft.bukkit.facecore.utilities.MessageUtils;
+import com.tealcube.minecraft.bukkit.tribes.TribesPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backs up the database while the server keeps running. The copy is taken on the storage thread right after every
+ * change made so far has been saved, then compressed and rotated on an async task. Nothing but queueing the latest
+ * changes happens on the main thread.
+ */
+public class DataBackupTask extends BukkitRunnable {
+
+    private static final String PREFIX = "tribes-";
+    private final TribesPlugin plugin;
+    private final CommandSender sender;
+
+    public DataBackupTask(TribesPlugin plugin, CommandSender sender) {
+        this.plugin = plugin;
+        this.sender = sender;
+    }
+
+    @Override
+    public void run() {
+        final File directory = new File(plugin.getDataFolder(), "db/backups");
+        IOUtils.createDirectory(directory);
+        final File target = new File(directory, PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) +
+                ".db");
+        new DataSaveTask(plugin, true).run();
+        boolean queued = plugin.getDataSaveExecutor().runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                if (target.exists() || !plugin.getDataStorage().backup(target)) {
+                    reply("<red>Unable to back up the database, see the console for details.");
+                    return;
+                }
+                // compressing a large file would hold up saves, so it gets a thread of its own
+                Bukkit.getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(directory, target);
+                    }
+                });
+            }
+        });
+        if (!queued) {
+            MessageUtils.sendMessage(sender, "<red>Storage is shutting down, try again later.");
+        }
+    }
+
+    private void finish(File directory, File target) {
+        File backup = target;
+        if (plugin.getSettings().getBoolean("db.backup-compress")) {
+            try {
+                backup = compress(target);
+            } catch (IOException e) {
+                plugin.getPluginLogger().log(Level.WARNING, "unable to compress " + target.getName() + ": " +
+                        e.getMessage());
+            }
+        }
+        rotate(directory, plugin.getSettings().getInt("db.backup-keep"));
+        reply("<green>Backed up the database to <white>" + backup.getName() + "<green>.");
+    }
+
+    private void reply(final String message) {
+        Bukkit.getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                MessageUtils.sendMessage(sender, message);
+            }
+        });
+    }
+
+    private static File compress(File file) throws IOException {
+        File compressed = new File(file.getParentFile(), file.getName() + ".gz");
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            out = new GZIPOutputStream(new FileOutputStream(compressed), 1 << 16);
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+        } catch (IOException e) {
+            closeQuietly(out);
+            if (!compressed.delete()) {
+                compressed.deleteOnExit();
+            }
+            throw e;
+        } finally {
+            closeQuietly(in);
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+        return compressed;
+    }
+
+    private void rotate(File directory, int keep) {
+        if (keep <= 0) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().startsWith(PREFIX)) {
+                names.add(file.getName());
+            }
+        }
+        // the timestamp in the name sorts oldest first
+        Collections.sort(names);
+        for (int i = 0; i < names.size() - keep; i++) {
+            File old = new File(directory, names.get(i));
+            if (!old.delete()) {
+                plugin.getPluginLogger().log(Level.WARNING, "unable to delete old backup " + old.getName());
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing we can do about it
+        }
+    }
+
+}
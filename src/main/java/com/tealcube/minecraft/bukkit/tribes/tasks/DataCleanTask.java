@@ -43,6 +43,11 @@ public class DataCleanTask extends BukkitRunnable {
 
     @Override
     public void run() {
+        // whatever it removes is deleted from storage, so it must not mistake unread rows for orphans
+        if (!plugin.isDataComplete()) {
+            plugin.debug("data is not completely loaded, skipping clean");
+            return;
+        }
         // clearing member's guilds if they don't exist
         for (Member m : plugin.getMemberManager().getMembers()) {
             if (m.getTribe() == null) {
@@ -23,21 +23,75 @@
 package com.tealcube.minecraft.bukkit.tribes.tasks;
 
 import com.tealcube.minecraft.bukkit.tribes.TribesPlugin;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import com.tealcube.minecraft.bukkit.tribes.storage.DataSnapshot;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.util.UUID;
+
 public class DataSaveTask extends BukkitRunnable {
 
     private final TribesPlugin plugin;
+    private final boolean force;
 
     public DataSaveTask(TribesPlugin plugin) {
+        this(plugin, false);
+    }
+
+    /**
+     * @param plugin plugin whose data is saved
+     * @param force true to queue changes even while storage is overloaded, e.g. when shutting down
+     */
+    public DataSaveTask(TribesPlugin plugin, boolean force) {
         this.plugin = plugin;
+        this.force = force;
     }
 
     @Override
     public void run() {
-        plugin.getDataStorage().saveTribes(plugin.getTribeManager().getTribes());
-        plugin.getDataStorage().saveCells(plugin.getCellManager().getCells());
-        plugin.getDataStorage().saveMembers(plugin.getMemberManager().getMembers());
+        if (!force && plugin.getDataSaveExecutor().isOverloaded()) {
+            // changes stay dirty in the managers, where repeated updates to the same key cost nothing extra
+            plugin.debug("storage is overloaded, skipping save");
+            return;
+        }
+        // the previous save has landed, so regions nobody is in can be dropped without losing changes
+        if (plugin.getCellManager().isLazy() && plugin.getDataSaveExecutor().isIdle()) {
+            int evicted = plugin.getCellManager().evictIdleRegions();
+            if (evicted > 0) {
+                plugin.debug("regions evicted: " + evicted);
+            }
+        }
+        // copy what changed while we're on the main thread, the storage thread does the actual writing
+        long start = System.nanoTime();
+        DataSnapshot snapshot = new DataSnapshot();
+        if (plugin.getDataJournal() != null) {
+            // every change journaled so far is about to be captured below
+            snapshot.setJournalSegment(plugin.getDataJournal().rotate());
+        }
+        for (Tribe tribe : plugin.getTribeManager().takeDirtyTribes()) {
+            snapshot.addTribe(tribe.copy());
+        }
+        for (Cell cell : plugin.getCellManager().takeDirtyCells()) {
+            snapshot.addCell(cell.copy());
+        }
+        for (Member member : plugin.getMemberManager().takeDirtyMembers()) {
+            snapshot.addMember(member.copy());
+        }
+        for (UUID uuid : plugin.getTribeManager().takeRemovedTribes()) {
+            snapshot.removeTribe(uuid);
+        }
+        for (Vec2 vec2 : plugin.getCellManager().takeRemovedCells()) {
+            snapshot.removeCell(vec2);
+        }
+        for (UUID uuid : plugin.getMemberManager().takeRemovedMembers()) {
+            snapshot.removeMember(uuid);
+        }
+        // this part runs on the main thread, so it is the part of saving that costs tick time
+        plugin.getStorageMetrics().get("snapshot").record(System.nanoTime() - start, snapshot.size(), true);
+        plugin.getDataSaveExecutor().submit(snapshot);
     }
 
 }
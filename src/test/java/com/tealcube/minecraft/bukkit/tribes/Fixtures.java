@@ -0,0 +1,148 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes;
+
+import com.tealcube.minecraft.bukkit.config.MasterConfiguration;
+import com.tealcube.minecraft.bukkit.facecore.logging.PluginLogger;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mocked plugin, server and world for exercising storage and managers outside of a running server.
+ */
+public final class Fixtures {
+
+    public static final String WORLD_NAME = "world";
+    private static World world;
+
+    private Fixtures() {
+        // do nothing
+    }
+
+    /**
+     * Gets the one world known to the mocked server, installing the server on first use.
+     * @return mocked world named {@link #WORLD_NAME}
+     */
+    public static synchronized World getWorld() {
+        if (world != null) {
+            return world;
+        }
+        world = mock(World.class);
+        when(world.getName()).thenReturn(WORLD_NAME);
+        when(world.getUID()).thenReturn(UUID.nameUUIDFromBytes(WORLD_NAME.getBytes()));
+        if (Bukkit.getServer() == null) {
+            Server server = mock(Server.class);
+            when(server.getLogger()).thenReturn(Logger.getLogger("tribes-test"));
+            when(server.getWorld(WORLD_NAME)).thenReturn(world);
+            Bukkit.setServer(server);
+        }
+        return world;
+    }
+
+    /**
+     * Creates a plugin that only answers what storage needs: a data folder, a logger and settings.
+     * @param dataFolder folder for databases and logs
+     * @param settings values of the {@code db.*} settings, unset keys read as 0, false or null
+     * @return mocked plugin
+     */
+    public static TribesPlugin createPlugin(File dataFolder, Map<String, Object> settings) {
+        getWorld();
+        MasterConfiguration configuration = mock(MasterConfiguration.class);
+        for (Map.Entry<String, Object> entry : settings.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                when(configuration.getInt(entry.getKey())).thenReturn((Integer) value);
+            } else if (value instanceof Boolean) {
+                when(configuration.getBoolean(entry.getKey())).thenReturn((Boolean) value);
+            } else {
+                when(configuration.getString(entry.getKey())).thenReturn(String.valueOf(value));
+            }
+        }
+        TribesPlugin plugin = mock(TribesPlugin.class);
+        when(plugin.getSettings()).thenReturn(configuration);
+        when(plugin.getPluginLogger()).thenReturn(new PluginLogger(new File(dataFolder, "logs/test.log")));
+        setDataFolder(plugin, dataFolder);
+        return plugin;
+    }
+
+    /**
+     * Creates an empty folder that is deleted when the JVM exits.
+     * @param prefix name prefix
+     * @return new folder
+     */
+    public static File createTempFolder(String prefix) {
+        try {
+            File folder = File.createTempFile(prefix, "");
+            if (!folder.delete() || !folder.mkdirs()) {
+                throw new IllegalStateException("unable to create " + folder);
+            }
+            folder.deleteOnExit();
+            return folder;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Deletes a folder and everything in it.
+     * @param file folder or file to delete
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void setDataFolder(TribesPlugin plugin, File dataFolder) {
+        // getDataFolder() is final on JavaPlugin, so the field behind it is set instead
+        for (Class<?> type = plugin.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField("dataFolder");
+                field.setAccessible(true);
+                field.set(plugin, dataFolder);
+                return;
+            } catch (NoSuchFieldException e) {
+                // keep looking further up
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalStateException("unable to find the data folder of " + plugin.getClass());
+    }
+
+}
@@ -0,0 +1,303 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import com.tealcube.minecraft.bukkit.tribes.Fixtures;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import org.bukkit.World;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the spatial queries against a scan of every cell, over claims on both sides of zero and queries that cross
+ * region edges.
+ */
+public class CellManagerTest {
+
+    private static final int SPREAD = 150;
+    private static final int[][] CENTERS = {{0, 0}, {-1, -1}, {31, 32}, {-33, 40}, {-200, 7}, {97, -160}};
+    private World world;
+    private List<UUID> owners;
+    private Map<Vec2, Cell> stored;
+
+    @Before
+    public void setUp() {
+        world = Fixtures.getWorld();
+        owners = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            owners.add(UUID.randomUUID());
+        }
+        stored = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 800; i++) {
+            Vec2 vec2 = Vec2.fromCoordinates(world, random.nextInt(SPREAD) - SPREAD / 2,
+                    random.nextInt(SPREAD) - SPREAD / 2);
+            stored.put(vec2, new Cell(vec2, owners.get(random.nextInt(owners.size()))));
+        }
+    }
+
+    @Test
+    public void testGetCellsInBoxMatchesAScan() {
+        CellManager cellManager = createManager();
+        int[][] boxes = {{-5, -5, 5, 5}, {-32, -32, -1, -1}, {-33, -33, 0, 0}, {31, -1, 32, 64}, {-100, -100, 100, 100},
+                {-40, 10, -40, 10}, {200, 200, 300, 300}};
+        for (int[] box : boxes) {
+            Set<Cell> expected = new HashSet<>();
+            for (Cell cell : stored.values()) {
+                Vec2 vec2 = cell.getLocation();
+                if (vec2.getX() >= box[0] && vec2.getZ() >= box[1] && vec2.getX() <= box[2] && vec2.getZ() <= box[3]) {
+                    expected.add(cell);
+                }
+            }
+            List<Cell> cells = cellManager.getCellsInBox(world, box[0], box[1], box[2], box[3]);
+            assertEquals(expected.size(), cells.size());
+            assertEquals(expected, new HashSet<>(cells));
+        }
+    }
+
+    @Test
+    public void testGetCellsInRadiusMatchesAScan() {
+        CellManager cellManager = createManager();
+        for (int[] center : CENTERS) {
+            for (int radius : new int[]{0, 1, 7, 33, 120}) {
+                Vec2 vec2 = Vec2.fromCoordinates(world, center[0], center[1]);
+                Set<Cell> expected = new HashSet<>();
+                for (Cell cell : stored.values()) {
+                    if (distanceSquared(vec2, cell) <= (long) radius * radius) {
+                        expected.add(cell);
+                    }
+                }
+                assertEquals(expected, new HashSet<>(cellManager.getCellsInRadius(vec2, radius)));
+            }
+        }
+    }
+
+    @Test
+    public void testGetNearestCellsMatchesAScan() {
+        assertNearestCellsMatchAScan(createManager(), new HashSet<Vec2>());
+    }
+
+    @Test
+    public void testGetNearestCellsMatchesAScanWhenLazy() {
+        assertNearestCellsMatchAScan(createLazyManager(new HashSet<Vec2>()), new HashSet<Vec2>());
+    }
+
+    @Test
+    public void testGetNearestCellsOnlyLoadsRegionsThatCouldBeCloser() {
+        Set<Vec2> loaded = new HashSet<>();
+        CellManager cellManager = createLazyManager(loaded);
+        Vec2 center = Vec2.fromCoordinates(world, -17, 5);
+
+        List<Cell> nearest = cellManager.getNearestCells(center, 3);
+
+        assertEquals(3, nearest.size());
+        long bound = distanceSquared(center, nearest.get(nearest.size() - 1));
+        for (Vec2 region : loaded) {
+            assertTrue("loaded " + region + " beyond the nearest cells",
+                    closestDistanceSquared(center, region) <= bound);
+        }
+        // the claims reach well past the three closest cells
+        assertTrue(loaded.size() < countRegions());
+    }
+
+    @Test
+    public void testGetNearestCellsOnlyQueuesLoadsThatCouldBeCloser() {
+        Set<Vec2> loaded = new HashSet<>();
+        CellManager cellManager = createLazyManager(loaded);
+        final List<Runnable> loads = new ArrayList<>();
+        cellManager.setLoadExecutors(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                loads.add(command);
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        Vec2 center = Vec2.fromCoordinates(world, 40, -40);
+        Vec2 centerRegion = ClaimIndex.regionOf(center);
+        assertTrue(cellManager.getClaimIndex().getClaimCount(centerRegion, null) >= 3);
+
+        // nothing is in memory yet, but the center region alone is known to hold enough claims
+        assertTrue(cellManager.getNearestCells(center, 3).isEmpty());
+        long reach = farthestDistanceSquared(center, centerRegion);
+        int queued = loads.size();
+        for (Runnable load : new ArrayList<>(loads)) {
+            loads.remove(load);
+            load.run();
+        }
+        assertEquals(queued, loaded.size());
+        for (Vec2 region : loaded) {
+            assertTrue("queued " + region + " beyond the claims of " + centerRegion,
+                    closestDistanceSquared(center, region) <= reach);
+        }
+        assertTrue(loaded.size() < countRegions());
+
+        List<Cell> nearest = cellManager.getNearestCells(center, 3);
+        assertTrue(loads.isEmpty());
+        List<Long> expected = new ArrayList<>();
+        for (Cell cell : stored.values()) {
+            expected.add(distanceSquared(center, cell));
+        }
+        Collections.sort(expected);
+        assertEquals(expected.subList(0, 3), distances(center, nearest));
+    }
+
+    @Test
+    public void testGetNearestCellsSkipsTheIgnoredOwner() {
+        CellManager cellManager = createManager();
+        Vec2 center = Vec2.fromCoordinates(world, 3, -3);
+        List<Cell> nearest = cellManager.getNearestCells(center, 20, owners.get(0));
+
+        List<Long> expected = new ArrayList<>();
+        for (Cell cell : stored.values()) {
+            if (!cell.getOwner().equals(owners.get(0))) {
+                expected.add(distanceSquared(center, cell));
+            }
+        }
+        Collections.sort(expected);
+        assertEquals(expected.subList(0, 20), distances(center, nearest));
+        for (Cell cell : nearest) {
+            assertTrue(!cell.getOwner().equals(owners.get(0)));
+        }
+    }
+
+    private void assertNearestCellsMatchAScan(CellManager cellManager, Set<Vec2> loaded) {
+        for (int[] center : CENTERS) {
+            Vec2 vec2 = Vec2.fromCoordinates(world, center[0], center[1]);
+            List<Long> expected = new ArrayList<>();
+            for (Cell cell : stored.values()) {
+                expected.add(distanceSquared(vec2, cell));
+            }
+            Collections.sort(expected);
+            for (int count : new int[]{1, 5, 64, stored.size() + 10}) {
+                List<Cell> nearest = cellManager.getNearestCells(vec2, count);
+                // cells at the same distance may come in any order, so only the distances are compared
+                assertEquals(expected.subList(0, Math.min(count, expected.size())), distances(vec2, nearest));
+                for (Cell cell : nearest) {
+                    assertEquals(stored.get(cell.getLocation()), cell);
+                }
+            }
+        }
+        assertTrue(loaded.isEmpty() || loaded.size() <= countRegions());
+    }
+
+    private CellManager createManager() {
+        CellManager cellManager = new CellManager();
+        for (Cell cell : stored.values()) {
+            cellManager.placeCell(cell.getLocation(), cell.copy());
+        }
+        return cellManager;
+    }
+
+    private CellManager createLazyManager(final Set<Vec2> loaded) {
+        CellManager cellManager = new CellManager();
+        for (Cell cell : stored.values()) {
+            cellManager.addRegionClaims(ClaimIndex.regionOf(cell.getLocation()), cell.getOwner(), 1);
+        }
+        cellManager.setRegionLoader(new RegionLoader() {
+            @Override
+            public Collection<Cell> loadRegion(Vec2 region) {
+                loaded.add(region);
+                List<Cell> cells = new ArrayList<>();
+                for (Cell cell : stored.values()) {
+                    if (ClaimIndex.regionOf(cell.getLocation()).equals(region)) {
+                        cells.add(cell.copy());
+                    }
+                }
+                return cells;
+            }
+        });
+        return cellManager;
+    }
+
+    private int countRegions() {
+        Set<Vec2> regions = new HashSet<>();
+        for (Vec2 vec2 : stored.keySet()) {
+            regions.add(ClaimIndex.regionOf(vec2));
+        }
+        return regions.size();
+    }
+
+    private static long closestDistanceSquared(Vec2 center, Vec2 region) {
+        long closest = Long.MAX_VALUE;
+        for (long distance : regionDistances(center, region)) {
+            closest = Math.min(closest, distance);
+        }
+        return closest;
+    }
+
+    private static long farthestDistanceSquared(Vec2 center, Vec2 region) {
+        long farthest = 0;
+        for (long distance : regionDistances(center, region)) {
+            farthest = Math.max(farthest, distance);
+        }
+        return farthest;
+    }
+
+    private static List<Long> regionDistances(Vec2 center, Vec2 region) {
+        List<Long> distances = new ArrayList<>();
+        int size = 1 << ClaimIndex.REGION_SHIFT;
+        for (int x = region.getX() * size; x < (region.getX() + 1) * size; x++) {
+            for (int z = region.getZ() * size; z < (region.getZ() + 1) * size; z++) {
+                long dx = x - center.getX();
+                long dz = z - center.getZ();
+                distances.add(dx * dx + dz * dz);
+            }
+        }
+        return distances;
+    }
+
+    private static List<Long> distances(Vec2 center, List<Cell> cells) {
+        List<Long> distances = new ArrayList<>();
+        for (Cell cell : cells) {
+            distances.add(distanceSquared(center, cell));
+        }
+        return distances;
+    }
+
+    private static long distanceSquared(Vec2 center, Cell cell) {
+        long dx = cell.getLocation().getX() - center.getX();
+        long dz = cell.getLocation().getZ() - center.getZ();
+        return dx * dx + dz * dz;
+    }
+
+}
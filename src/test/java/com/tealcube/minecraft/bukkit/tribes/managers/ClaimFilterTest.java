@@ -0,0 +1,102 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClaimFilterTest {
+
+    @Test
+    public void testAddedKeysAreAlwaysFound() {
+        ClaimFilter filter = new ClaimFilter();
+        List<Long> keys = new ArrayList<>();
+        for (int x = -20; x < 20; x++) {
+            for (int z = -20; z < 20; z++) {
+                keys.add(LongObjectMap.key(x, z));
+            }
+        }
+        for (long key : keys) {
+            filter.add(key, 1);
+        }
+        for (long key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+        for (long key : keys) {
+            filter.add(key, -1);
+        }
+        for (long key : keys) {
+            assertFalse(filter.mightContain(key));
+        }
+    }
+
+    @Test
+    public void testKeysStayUntilTheirCountDropsToZero() {
+        ClaimFilter filter = new ClaimFilter();
+        long key = LongObjectMap.key(-3, 12);
+        filter.add(key, 5);
+        filter.add(key, -4);
+        assertTrue(filter.mightContain(key));
+        filter.add(key, 1);
+        filter.add(key, -2);
+        assertFalse(filter.mightContain(key));
+        filter.add(key, 1);
+        assertTrue(filter.mightContain(key));
+    }
+
+    @Test
+    public void testFewKeysLeaveMostOfTheFilterEmpty() {
+        ClaimFilter filter = new ClaimFilter();
+        Random random = new Random(11);
+        Set<Long> added = new HashSet<>();
+        while (added.size() < 500) {
+            long key = LongObjectMap.key(random.nextInt(2000) - 1000, random.nextInt(2000) - 1000);
+            if (added.add(key)) {
+                filter.add(key, 1);
+            }
+        }
+        int falsePositives = 0;
+        int probes = 0;
+        while (probes < 10000) {
+            long key = LongObjectMap.key(random.nextInt(2000) - 1000, random.nextInt(2000) - 1000);
+            if (added.contains(key)) {
+                continue;
+            }
+            probes++;
+            if (filter.mightContain(key)) {
+                falsePositives++;
+            }
+        }
+        // 500 keys set well under 1% of the bits
+        assertTrue("false positives: " + falsePositives, falsePositives < probes / 50);
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of looking up the owner of a chunk at 100,000 and 1,000,000 claims, through {@link CellManager} and through
+ * a {@code HashMap<Vec2, Cell>} as CellManager used to be. The heap each of them keeps on top of the cells is printed
+ * while setting up. Run with {@code java -cp <test classpath> org.openjdk.jmh.Main ClaimLookupBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ClaimLookupBenchmark {
+
+    private static final int PROBES = 1024;
+    // every tribe claims a square of chunks, with as much wilderness between the squares
+    private static final int SQUARE = 10;
+    @Param({"100000", "1000000"})
+    private int claims;
+    private World world;
+    private CellManager cellManager;
+    private Map<Vec2, Cell> cellMap;
+    private int[] probeXs;
+    private int[] probeZs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        world = createWorld();
+        Random random = new Random(1);
+        int tribes = claims / (SQUARE * SQUARE);
+        int side = (int) Math.ceil(Math.sqrt(tribes));
+        List<Cell> cells = new ArrayList<>(claims);
+        for (int tribe = 0; tribe < tribes; tribe++) {
+            UUID owner = new UUID(random.nextLong(), random.nextLong());
+            int minX = tribe % side * SQUARE * 2;
+            int minZ = tribe / side * SQUARE * 2;
+            for (int x = minX; x < minX + SQUARE; x++) {
+                for (int z = minZ; z < minZ + SQUARE; z++) {
+                    cells.add(new Cell(Vec2.fromCoordinates(world, x, z), owner));
+                }
+            }
+        }
+
+        long before = usedHeap();
+        cellManager = new CellManager();
+        for (Cell cell : cells) {
+            cellManager.placeCell(cell.getLocation(), cell);
+        }
+        long afterManager = usedHeap();
+        cellMap = new HashMap<>();
+        for (Cell cell : cells) {
+            cellMap.put(cell.getLocation(), cell);
+        }
+        long afterMap = usedHeap();
+        System.out.printf("%n%d claims: CellManager %d bytes per claim, HashMap %d bytes per claim%n", cells.size(),
+                (afterManager - before) / claims, (afterMap - afterManager) / claims);
+
+        // about a quarter of the probes hit a claim
+        probeXs = new int[PROBES];
+        probeZs = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probeXs[i] = random.nextInt(side * SQUARE * 2);
+            probeZs[i] = random.nextInt(side * SQUARE * 2);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public void cellManagerGetOwner(Blackhole blackhole) {
+        for (int i = 0; i < PROBES; i++) {
+            blackhole.consume(cellManager.getOwner(world, probeXs[i], probeZs[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public void hashMapGetOwner(Blackhole blackhole) {
+        for (int i = 0; i < PROBES; i++) {
+            Cell cell = cellMap.get(Vec2.fromCoordinates(world, probeXs[i], probeZs[i]));
+            blackhole.consume(cell != null ? cell.getOwner() : null);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static World createWorld() {
+        // a mock would put its own bookkeeping into every getUID, hashCode and equals being measured
+        final UUID uid = UUID.nameUUIDFromBytes("world".getBytes());
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[]{World.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "getUID":
+                                return uid;
+                            case "getName":
+                                return "world";
+                            case "hashCode":
+                                return uid.hashCode();
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,176 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongObjectMapTest {
+
+    // the hashing of LongObjectMap, for keys that land in a chosen slot of a new map
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+    private static final int CAPACITY = 16;
+
+    @Test
+    public void testRemoveShiftsBackAcrossTheEndOfTheTable() {
+        // three keys that all want the last slot, and one that wants the first: 15, 0, 1 and 2 once placed
+        List<Long> last = keysInSlot(CAPACITY - 1, 3);
+        long first = keysInSlot(0, 1).get(0);
+        LongObjectMap<String> map = new LongObjectMap<>();
+        for (long key : last) {
+            map.put(key, "last " + key);
+        }
+        map.put(first, "first");
+
+        assertEquals("last " + last.get(0), map.remove(last.get(0)));
+        assertNull(map.get(last.get(0)));
+        assertEquals("last " + last.get(1), map.get(last.get(1)));
+        assertEquals("last " + last.get(2), map.get(last.get(2)));
+        assertEquals("first", map.get(first));
+
+        assertEquals("last " + last.get(2), map.remove(last.get(2)));
+        assertEquals("last " + last.get(1), map.get(last.get(1)));
+        assertEquals("first", map.get(first));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testRemoveKeepsCollidingKeysReachable() {
+        List<Long> colliding = keysInSlot(5, 4);
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        for (long key : colliding) {
+            map.put(key, key);
+        }
+        for (int removed = 0; removed < colliding.size(); removed++) {
+            assertEquals(colliding.get(removed), map.remove(colliding.get(removed)));
+            assertNull(map.remove(colliding.get(removed)));
+            for (int i = 0; i < colliding.size(); i++) {
+                assertEquals(i > removed ? colliding.get(i) : null, map.get(colliding.get(i)));
+            }
+        }
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testPutReplacesAndReturnsThePreviousValue() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertNull(map.put(LongObjectMap.key(-3, 7), "a"));
+        assertEquals("a", map.put(LongObjectMap.key(-3, 7), "b"));
+        assertEquals("b", map.get(LongObjectMap.key(-3, 7)));
+        assertNull(map.get(LongObjectMap.key(7, -3)));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testResizeKeepsEveryEntry() {
+        LongObjectMap<Integer> map = new LongObjectMap<>();
+        for (int i = 0; i < 5000; i++) {
+            map.put(LongObjectMap.key(i % 71 - 35, i / 71 - 35), i);
+        }
+        assertEquals(5000, map.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(Integer.valueOf(i), map.get(LongObjectMap.key(i % 71 - 35, i / 71 - 35)));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            map.remove(LongObjectMap.key(i % 71 - 35, i / 71 - 35));
+        }
+        assertEquals(2500, map.size());
+        assertEquals(2500, map.keys().length);
+        assertEquals(2500, new HashSet<>(map.values()).size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(LongObjectMap.key(i % 71 - 35,
+                    i / 71 - 35)));
+        }
+    }
+
+    @Test
+    public void testMatchesAHashMap() {
+        // few distinct keys in a small table, so most operations hit long probe runs
+        Random random = new Random(7);
+        Map<Long, Integer> expected = new HashMap<>();
+        LongObjectMap<Integer> map = new LongObjectMap<>();
+        for (int i = 0; i < 100000; i++) {
+            long key = LongObjectMap.key(random.nextInt(9) - 4, random.nextInt(9) - 4);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        List<Long> sorted = new ArrayList<>(expected.keySet());
+        Collections.sort(sorted);
+        long[] expectedKeys = new long[sorted.size()];
+        for (int i = 0; i < expectedKeys.length; i++) {
+            expectedKeys[i] = sorted.get(i);
+        }
+        assertArrayEquals(expectedKeys, keys);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.keys().length);
+    }
+
+    @Test
+    public void testKeysPackBothHalves() {
+        int[] values = {0, 1, -1, 31, -32, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int x : values) {
+            for (int z : values) {
+                long key = LongObjectMap.key(x, z);
+                assertEquals(x, LongObjectMap.keyX(key));
+                assertEquals(z, LongObjectMap.keyZ(key));
+            }
+        }
+    }
+
+    private static List<Long> keysInSlot(int slot, int count) {
+        List<Long> keys = new ArrayList<>();
+        int shift = 64 - Integer.numberOfTrailingZeros(CAPACITY);
+        for (long key = 0; keys.size() < count; key++) {
+            if ((int) ((key * PHI) >>> shift) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+}
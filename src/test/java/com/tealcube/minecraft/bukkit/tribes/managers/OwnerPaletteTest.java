@@ -0,0 +1,88 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OwnerPaletteTest {
+
+    @Test
+    public void testAcquireCountsReferences() {
+        OwnerPalette palette = new OwnerPalette();
+        UUID owner = UUID.randomUUID();
+        assertEquals(0, palette.acquire(null));
+        int id = palette.acquire(owner);
+        assertTrue(id != 0);
+        assertEquals(id, palette.acquire(owner));
+        assertEquals(owner, palette.get(id));
+        assertNull(palette.get(0));
+
+        palette.release(id);
+        // one reference left
+        assertEquals(id, palette.acquire(UUID.fromString(owner.toString())));
+        assertEquals(owner, palette.get(id));
+    }
+
+    @Test
+    public void testFreedIdsAreReusedUnderANewEpoch() {
+        OwnerPalette palette = new OwnerPalette();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        int id = palette.acquire(first);
+        int epoch = palette.getEpoch();
+
+        palette.release(id);
+        // freed, but readers still holding the id see the old owner until it is handed out again
+        assertEquals(first, palette.get(id));
+        assertEquals(epoch, palette.getEpoch());
+
+        assertEquals(id, palette.acquire(second));
+        assertEquals(second, palette.get(id));
+        assertTrue(palette.getEpoch() != epoch);
+
+        // the first owner comes back under a fresh id
+        int again = palette.acquire(first);
+        assertTrue(again != id);
+        assertEquals(first, palette.get(again));
+    }
+
+    @Test
+    public void testNewIdsLeaveTheEpochAlone() {
+        OwnerPalette palette = new OwnerPalette();
+        int epoch = palette.getEpoch();
+        for (int i = 0; i < 100; i++) {
+            UUID owner = UUID.randomUUID();
+            int id = palette.acquire(owner);
+            assertEquals(i + 1, id);
+            assertEquals(owner, palette.get(id));
+        }
+        assertEquals(epoch, palette.getEpoch());
+    }
+
+}
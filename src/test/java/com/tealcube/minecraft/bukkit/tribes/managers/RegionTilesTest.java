@@ -0,0 +1,124 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RegionTilesTest {
+
+    private RegionTiles tiles;
+    private Map<Long, UUID> expected;
+
+    @Before
+    public void setUp() {
+        tiles = new RegionTiles(new OwnerPalette());
+        expected = new HashMap<>();
+        List<UUID> owners = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            owners.add(UUID.randomUUID());
+        }
+        Random random = new Random(3);
+        // four regions on each side of zero
+        for (int i = 0; i < 1500; i++) {
+            int x = random.nextInt(128) - 64;
+            int z = random.nextInt(128) - 64;
+            UUID owner = owners.get(random.nextInt(owners.size()));
+            tiles.set(x, z, owner);
+            expected.put(LongObjectMap.key(x, z), owner);
+        }
+    }
+
+    @Test
+    public void testGetMatchesWhatWasSet() {
+        for (int x = -70; x < 70; x++) {
+            for (int z = -70; z < 70; z++) {
+                assertEquals(expected.get(LongObjectMap.key(x, z)), tiles.get(x, z));
+            }
+        }
+    }
+
+    @Test
+    public void testForEachOwnedVisitsExactlyTheBox() {
+        int[][] boxes = {
+                {-64, -64, 63, 63},
+                {-1, -1, 0, 0},
+                {-33, -33, -32, -32},
+                {-32, -32, -1, -1},
+                {-31, 5, 30, 5},
+                {3, -64, 3, 63},
+                {-40, -20, -35, 40},
+                {31, 31, 32, 32},
+                {-1000, -1000, 1000, 1000},
+                {5, 5, 4, 4},
+                {64, 64, 200, 200},
+        };
+        for (int[] box : boxes) {
+            final Map<Long, UUID> visited = new HashMap<>();
+            tiles.forEachOwned(box[0], box[1], box[2], box[3], new RegionTiles.OwnedChunkVisitor() {
+                @Override
+                public void visit(int x, int z, UUID owner) {
+                    assertNull("visited twice", visited.put(LongObjectMap.key(x, z), owner));
+                }
+            });
+            Map<Long, UUID> inBox = new HashMap<>();
+            for (Map.Entry<Long, UUID> entry : expected.entrySet()) {
+                int x = LongObjectMap.keyX(entry.getKey());
+                int z = LongObjectMap.keyZ(entry.getKey());
+                if (x >= box[0] && z >= box[1] && x <= box[2] && z <= box[3]) {
+                    inBox.put(entry.getKey(), entry.getValue());
+                }
+            }
+            assertEquals(inBox, visited);
+        }
+    }
+
+    @Test
+    public void testClearingARegionDropsItsTileAndKeepsItsVersionMoving() {
+        UUID owner = UUID.randomUUID();
+        RegionTiles empty = new RegionTiles(new OwnerPalette());
+        assertEquals(0, empty.getVersion(-1, -1));
+        assertNull(empty.set(-1, -1, owner));
+        int claimed = empty.getVersion(-1, -1);
+        assertTrue(claimed != 0);
+        assertEquals(owner, empty.set(-1, -1, null));
+        assertEquals(0, empty.getVersion(-1, -1));
+        assertNull(empty.get(-1, -1));
+
+        empty.set(-32, -32, owner);
+        // same region as before, but never the same version
+        assertTrue(empty.getVersion(-1, -1) > claimed);
+    }
+
+}
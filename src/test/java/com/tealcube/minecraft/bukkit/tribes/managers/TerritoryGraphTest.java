@@ -0,0 +1,204 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.managers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Split checks on small drawn territories, where {@code #} is a claimed chunk, {@code X} the claimed chunk that is
+ * removed and anything else wilderness. Rows go south along z, columns east along x.
+ */
+public class TerritoryGraphTest {
+
+    private static final UUID OWNER = UUID.randomUUID();
+
+    @Test
+    public void testWouldSplit() {
+        Object[][] cases = {
+                // name, drawing, splits, territories left
+                {"line", new String[]{"#X#"}, true, 2},
+                {"dead end", new String[]{"X##"}, false, 1},
+                {"last chunk", new String[]{"X"}, false, 0},
+                {"L-shape through a corner", new String[]{
+                        "#X",
+                        "##"}, false, 1},
+                {"L-shape without its corner", new String[]{
+                        "#X",
+                        ".#"}, true, 2},
+                {"ring", new String[]{
+                        "#X###",
+                        "#...#",
+                        "#...#",
+                        "#####"}, false, 1},
+                {"cross", new String[]{
+                        ".#.",
+                        "#X#",
+                        ".#."}, true, 4},
+                {"cross in a ring", new String[]{
+                        "#####",
+                        "#.#.#",
+                        "##X##",
+                        "#.#.#",
+                        "#####"}, false, 1},
+                {"filled square", new String[]{
+                        "###",
+                        "#X#",
+                        "###"}, false, 1},
+        };
+        for (Object[] row : cases) {
+            String name = (String) row[0];
+            TerritoryGraph graph = new TerritoryGraph();
+            List<Long> chunks = new ArrayList<>();
+            long removed = draw(graph, (String[]) row[1], chunks);
+
+            assertEquals(name, row[2], graph.wouldSplit(LongObjectMap.keyX(removed), LongObjectMap.keyZ(removed)));
+            graph.remove(LongObjectMap.keyX(removed), LongObjectMap.keyZ(removed));
+            chunks.remove(Long.valueOf(removed));
+            assertEquals(name, row[3], graph.countTerritories(OWNER, toArray(chunks)));
+        }
+    }
+
+    @Test
+    public void testWouldSplitGivesUpPastTheSearchLimit() {
+        // two blocks joined by the removed chunk and, the long way round, by a path below them
+        TerritoryGraph small = new TerritoryGraph();
+        List<Long> smallChunks = bridgedBlocks(small, 8);
+        assertFalse(small.wouldSplit(0, 0));
+
+        TerritoryGraph large = new TerritoryGraph();
+        List<Long> largeChunks = bridgedBlocks(large, 50);
+        // more chunks than the limit on either side before the searches could meet
+        assertTrue(largeChunks.size() / 2 > TerritoryGraph.SEARCH_LIMIT / 2);
+        assertTrue(large.wouldSplit(0, 0));
+
+        // only the check gave up, the territory itself stays whole
+        large.remove(0, 0);
+        largeChunks.remove(Long.valueOf(LongObjectMap.key(0, 0)));
+        assertEquals(1, large.countTerritories(OWNER, toArray(largeChunks)));
+        small.remove(0, 0);
+        smallChunks.remove(Long.valueOf(LongObjectMap.key(0, 0)));
+        assertEquals(1, small.countTerritories(OWNER, toArray(smallChunks)));
+    }
+
+    @Test
+    public void testCountTerritoriesAfterASplitAndAJoin() {
+        TerritoryGraph graph = new TerritoryGraph();
+        List<Long> chunks = new ArrayList<>();
+        long removed = draw(graph, new String[]{
+                "##X##",
+                "#...#"}, chunks);
+        assertEquals(1, graph.countTerritories(OWNER, toArray(chunks)));
+
+        graph.remove(LongObjectMap.keyX(removed), LongObjectMap.keyZ(removed));
+        chunks.remove(Long.valueOf(removed));
+        assertEquals(2, graph.countTerritories(OWNER, toArray(chunks)));
+
+        graph.add(2, 1, OWNER);
+        graph.add(3, 1, OWNER);
+        chunks.add(LongObjectMap.key(2, 1));
+        chunks.add(LongObjectMap.key(3, 1));
+        // still apart, the new chunks only touch the east part
+        assertEquals(2, graph.countTerritories(OWNER, toArray(chunks)));
+        graph.add(1, 1, OWNER);
+        chunks.add(LongObjectMap.key(1, 1));
+        assertEquals(1, graph.countTerritories(OWNER, toArray(chunks)));
+    }
+
+    @Test
+    public void testIsLocallyConnected() {
+        // bits go clockwise from north: N, NE, E, SE, S, SW, W, NW
+        Object[][] cases = {
+                {"nothing", 0x00, true},
+                {"everything", 0xFF, true},
+                {"one edge", 0x01, true},
+                {"two edges joined by a corner", 0x07, true},
+                {"two edges without the corner", 0x05, false},
+                {"opposite edges", 0x11, false},
+                {"opposite edges joined along one side", 0x1F, true},
+                {"all edges, no corners", 0x55, false},
+                {"all but one corner", 0x7F, true},
+                {"all but two opposite corners", 0xDD, false},
+                {"corners only", 0xAA, true},
+                {"north edge with the far corners", 0x29, true},
+        };
+        for (Object[] row : cases) {
+            assertEquals((String) row[0], row[2], TerritoryGraph.isLocallyConnected((Integer) row[1]));
+        }
+    }
+
+    private static long draw(TerritoryGraph graph, String[] rows, List<Long> chunks) {
+        long removed = 0;
+        for (int z = 0; z < rows.length; z++) {
+            for (int x = 0; x < rows[z].length(); x++) {
+                char c = rows[z].charAt(x);
+                if (c == '#' || c == 'X') {
+                    graph.add(x, z, OWNER);
+                    chunks.add(LongObjectMap.key(x, z));
+                }
+                if (c == 'X') {
+                    removed = LongObjectMap.key(x, z);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static List<Long> bridgedBlocks(TerritoryGraph graph, int size) {
+        List<Long> chunks = new ArrayList<>();
+        for (int x = -size; x <= size; x++) {
+            for (int z = 0; z < size; z++) {
+                if (x != 0 || z == 0) {
+                    graph.add(x, z, OWNER);
+                    chunks.add(LongObjectMap.key(x, z));
+                }
+            }
+            // the path below
+            graph.add(x, size + 2, OWNER);
+            chunks.add(LongObjectMap.key(x, size + 2));
+        }
+        for (int z = size; z < size + 2; z++) {
+            for (int x : new int[]{-size, size}) {
+                graph.add(x, z, OWNER);
+                chunks.add(LongObjectMap.key(x, z));
+            }
+        }
+        return chunks;
+    }
+
+    private static long[] toArray(List<Long> chunks) {
+        long[] array = new long[chunks.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = chunks.get(i);
+        }
+        return array;
+    }
+
+}
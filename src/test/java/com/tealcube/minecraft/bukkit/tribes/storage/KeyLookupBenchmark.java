@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.tribes.Fixtures;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of loading rows by key from SQLite for 1, 100 and 10,000 keys, with the chunked set queries and with one
+ * query per key as before. Run with {@code java -cp <test classpath> org.openjdk.jmh.Main KeyLookupBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeyLookupBenchmark {
+
+    private static final int ROWS = 50000;
+    @Param({"1", "100", "10000"})
+    private int keys;
+    private File dataFolder;
+    private SqliteDataStorage storage;
+    private List<UUID> memberKeys;
+    private List<Vec2> cellKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataFolder = Fixtures.createTempFolder("tribes-bench");
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("db.sqlite-pool-size", 1);
+        settings.put("db.sqlite-batch-size", 1000);
+        storage = new SqliteDataStorage(Fixtures.createPlugin(dataFolder, settings));
+        storage.initialize();
+
+        Random random = new Random(1);
+        List<Member> members = new ArrayList<>();
+        List<Cell> cells = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Member member = new Member(new UUID(random.nextLong(), random.nextLong()));
+            member.setScore(random.nextInt(1000));
+            members.add(member);
+            cells.add(new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, i % 250, i / 250), member.getUniqueId()));
+        }
+        storage.saveMembers(members);
+        storage.saveCells(cells);
+
+        Collections.shuffle(members, random);
+        Collections.shuffle(cells, random);
+        memberKeys = new ArrayList<>();
+        cellKeys = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            memberKeys.add(members.get(i).getUniqueId());
+            cellKeys.add(cells.get(i).getLocation());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.shutdown();
+        Fixtures.delete(dataFolder);
+    }
+
+    @Benchmark
+    public List<Member> loadMembersByKey() {
+        return storage.loadMembers(memberKeys);
+    }
+
+    @Benchmark
+    public void loadMembersOneByOne(Blackhole blackhole) {
+        for (UUID key : memberKeys) {
+            blackhole.consume(storage.loadMembers(key));
+        }
+    }
+
+    @Benchmark
+    public Object loadCellsByKey() {
+        return storage.loadCells(cellKeys);
+    }
+
+    @Benchmark
+    public void loadCellsOneByOne(Blackhole blackhole) {
+        for (Vec2 key : cellKeys) {
+            blackhole.consume(storage.loadCells(key));
+        }
+    }
+
+}
@@ -0,0 +1,343 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.storage;
+
+import com.tealcube.minecraft.bukkit.tribes.Fixtures;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Member;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec3f;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the MySQL queries against H2 in MySQL compatibility mode, so the upserts, keyed loads, region grouping and
+ * streaming reads are covered without a server.
+ */
+public class MysqlDataStorageTest {
+
+    private File dataFolder;
+    private Map<String, Object> settings;
+    private MysqlDataStorage storage;
+
+    @Before
+    public void setUp() {
+        dataFolder = Fixtures.createTempFolder("tribes-mysql");
+        settings = new HashMap<>();
+        // a fresh database per test, kept alive between the pool's connections
+        settings.put("db.mysql-url", "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        settings.put("db.username", "sa");
+        settings.put("db.password", "");
+        settings.put("db.mysql-pool-size", 2);
+        settings.put("db.mysql-batch-size", 2);
+        settings.put("db.mysql-max-parameters", 9);
+        storage = new MysqlDataStorage(Fixtures.createPlugin(dataFolder, settings));
+        storage.initialize();
+    }
+
+    @After
+    public void tearDown() {
+        storage.shutdown();
+        Fixtures.delete(dataFolder);
+    }
+
+    @Test
+    public void testSaveCellsUpdatesExistingRows() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        Vec2 location = Vec2.fromCoordinates(Fixtures.WORLD_NAME, 3, -4);
+        assertTrue(storage.saveCells(Arrays.asList(new Cell(location, first))));
+        assertTrue(storage.saveCells(Arrays.asList(new Cell(location, second))));
+
+        Set<Cell> cells = storage.loadCells(location);
+        assertEquals(1, cells.size());
+        assertEquals(second, cells.iterator().next().getOwner());
+    }
+
+    @Test
+    public void testSaveMembersUpdatesExistingRows() {
+        Member member = new Member(UUID.randomUUID());
+        member.setScore(5);
+        assertTrue(storage.saveMembers(Arrays.asList(member)));
+        member.setScore(12);
+        member.setTribe(UUID.randomUUID());
+        member.setRank(Tribe.Rank.CAPTAIN);
+        assertTrue(storage.saveMembers(Arrays.asList(member)));
+
+        List<Member> members = storage.loadMembers(member.getUniqueId());
+        assertEquals(1, members.size());
+        assertEquals(12, members.get(0).getScore());
+        assertEquals(member.getTribe(), members.get(0).getTribe());
+        assertEquals(Tribe.Rank.CAPTAIN, members.get(0).getRank());
+    }
+
+    @Test
+    public void testLoadCellsByKeySpansSeveralChunks() {
+        // three parameters per cell, so at most three cells per query
+        List<Cell> cells = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            cells.add(new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, i, -i), UUID.randomUUID()));
+        }
+        assertTrue(storage.saveCells(cells));
+
+        List<Vec2> keys = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            keys.add(cells.get(i).getLocation());
+        }
+        keys.add(cells.get(0).getLocation());
+        keys.add(Vec2.fromCoordinates(Fixtures.WORLD_NAME, 100, 100));
+        assertEquals(new HashSet<>(cells.subList(0, 7)), storage.loadCells(keys));
+    }
+
+    @Test
+    public void testLoadMembersByKeySpansSeveralChunks() {
+        List<Member> members = new ArrayList<>();
+        List<UUID> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Member member = new Member(UUID.randomUUID());
+            member.setScore(i);
+            members.add(member);
+            if (i % 2 == 0) {
+                keys.add(member.getUniqueId());
+            }
+        }
+        assertTrue(storage.saveMembers(members));
+
+        Set<UUID> loaded = new HashSet<>();
+        for (Member member : storage.loadMembers(keys)) {
+            loaded.add(member.getUniqueId());
+        }
+        assertEquals(new HashSet<>(keys), loaded);
+    }
+
+    @Test
+    public void testServersSharingTheDatabaseAgreeOnWorldIds() {
+        // started before the first server stores the world, so its dictionary doesn't know it yet
+        MysqlDataStorage other = new MysqlDataStorage(Fixtures.createPlugin(dataFolder, settings));
+        other.initialize();
+        try {
+            Vec2 first = Vec2.fromCoordinates(Fixtures.WORLD_NAME, 1, 1);
+            Vec2 second = Vec2.fromCoordinates(Fixtures.WORLD_NAME, 2, 2);
+            assertTrue(storage.saveCells(Arrays.asList(new Cell(first, UUID.randomUUID()))));
+            assertTrue(other.saveCells(Arrays.asList(new Cell(second, UUID.randomUUID()))));
+
+            assertEquals(2, storage.loadCells(first, second).size());
+            assertEquals(2, other.loadCells(first, second).size());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void testServersSharingTheDatabaseReadEachOthersWorlds() {
+        // only ever reads, so every id it sees comes from the first server
+        MysqlDataStorage other = new MysqlDataStorage(Fixtures.createPlugin(dataFolder, settings));
+        other.initialize();
+        try {
+            Vec2 vec2 = Vec2.fromCoordinates(Fixtures.WORLD_NAME, 1, 1);
+            Cell cell = new Cell(vec2, UUID.randomUUID());
+            assertTrue(storage.saveCells(Arrays.asList(cell)));
+
+            assertEquals(1, other.loadCells(vec2).size());
+            assertEquals(1, other.loadCells(vec2.getWorld(), 0, 0, 2, 2).size());
+            assertEquals(1, other.loadRegionClaims().size());
+            final Set<Cell> visited = new HashSet<>();
+            assertTrue(other.forEachCell(new DataVisitor<Cell>() {
+                @Override
+                public void visit(Cell row) {
+                    visited.add(row);
+                }
+            }));
+            assertEquals(1, visited.size());
+
+            assertTrue(other.deleteCells(Arrays.asList(vec2)));
+            assertTrue(storage.loadCells(vec2).isEmpty());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadRegionClaimsFloorsNegativeCoordinates() {
+        UUID owner = UUID.randomUUID();
+        assertTrue(storage.saveCells(Arrays.asList(
+                new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, -1, -1), owner),
+                new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, -32, -32), owner),
+                new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, -33, 0), owner),
+                new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, 0, 31), owner),
+                new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, 40, 5)))));
+
+        Map<Vec2, Map<UUID, Integer>> claims = storage.loadRegionClaims();
+        assertEquals(3, claims.size());
+        assertEquals(Integer.valueOf(2), claims.get(Vec2.fromCoordinates(Fixtures.WORLD_NAME, -1, -1)).get(owner));
+        assertEquals(Integer.valueOf(1), claims.get(Vec2.fromCoordinates(Fixtures.WORLD_NAME, -2, 0)).get(owner));
+        assertEquals(Integer.valueOf(1), claims.get(Vec2.fromCoordinates(Fixtures.WORLD_NAME, 0, 0)).get(owner));
+    }
+
+    @Test
+    public void testLoadRegionClaimsReportsAFailedRead() throws SQLException {
+        assertTrue(storage.saveCells(Arrays.asList(new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, 1, 1),
+                UUID.randomUUID()))));
+        execute("DROP TABLE tr_cells");
+
+        assertNull(storage.loadRegionClaims());
+    }
+
+    @Test
+    public void testForEachVisitsEveryRow() {
+        List<Cell> cells = new ArrayList<>();
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            cells.add(new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, i, -i), UUID.randomUUID()));
+            members.add(new Member(UUID.randomUUID()));
+        }
+        assertTrue(storage.saveCells(cells));
+        assertTrue(storage.saveMembers(members));
+
+        final Set<Cell> visitedCells = new HashSet<>();
+        assertTrue(storage.forEachCell(new DataVisitor<Cell>() {
+            @Override
+            public void visit(Cell row) {
+                visitedCells.add(row);
+            }
+        }));
+        assertEquals(new HashSet<>(cells), visitedCells);
+
+        final Set<UUID> visitedMembers = new HashSet<>();
+        assertTrue(storage.forEachMember(new DataVisitor<Member>() {
+            @Override
+            public void visit(Member row) {
+                visitedMembers.add(row.getUniqueId());
+            }
+        }));
+        assertEquals(members.size(), visitedMembers.size());
+        for (Member member : members) {
+            assertTrue(visitedMembers.contains(member.getUniqueId()));
+        }
+    }
+
+    @Test
+    public void testInitializeMigratesTheOriginalSchema() throws SQLException {
+        storage.shutdown();
+        settings.put("db.mysql-url", "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        // the tables as the first releases created them
+        execute("CREATE TABLE tr_cells (world VARCHAR(64) NOT NULL, x INT NOT NULL, z INT NOT NULL, " +
+                "owner CHAR(36), PRIMARY KEY (world, x, z))");
+        execute("CREATE TABLE tr_members (id CHAR(36) NOT NULL PRIMARY KEY, score INT NOT NULL, tribe CHAR(36), " +
+                "rank VARCHAR(16), pvpstate INT NOT NULL, partnerid CHAR(36))");
+        execute("CREATE TABLE tr_tribes (id CHAR(36) NOT NULL PRIMARY KEY, owner CHAR(36) NOT NULL, " +
+                "name VARCHAR(64) NOT NULL UNIQUE, level INT NOT NULL, home VARCHAR(255) NOT NULL)");
+        UUID tribeId = UUID.randomUUID();
+        UUID owner = UUID.randomUUID();
+        List<UUID> memberIds = new ArrayList<>();
+        // more rows than the batch size, so every table is drained in several chunks
+        for (int i = 0; i < 3; i++) {
+            execute("INSERT INTO tr_cells VALUES ('" + Fixtures.WORLD_NAME + "', " + i + ", " + -i + ", '" +
+                    tribeId + "')");
+            UUID memberId = UUID.randomUUID();
+            memberIds.add(memberId);
+            execute("INSERT INTO tr_members VALUES ('" + memberId + "', " + (10 + i) + ", '" + tribeId +
+                    "', 'CAPTAIN', 1, NULL)");
+        }
+        execute("INSERT INTO tr_tribes VALUES ('" + tribeId + "', '" + owner + "', 'first', 1, '" +
+                Fixtures.WORLD_NAME + ":10:64:-20:1.5:90.0')");
+        execute("INSERT INTO tr_tribes VALUES ('" + UUID.randomUUID() + "', '" + owner + "', 'second', 0, '')");
+        execute("INSERT INTO tr_tribes VALUES ('" + UUID.randomUUID() + "', '" + owner + "', 'third', 0, '')");
+
+        storage = new MysqlDataStorage(Fixtures.createPlugin(dataFolder, settings));
+        storage.initialize();
+
+        Set<Cell> cells = storage.loadCells();
+        assertEquals(3, cells.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cells.contains(new Cell(Vec2.fromCoordinates(Fixtures.WORLD_NAME, i, -i), tribeId)));
+        }
+        List<Member> members = storage.loadMembers(memberIds);
+        assertEquals(3, members.size());
+        for (Member member : members) {
+            assertEquals(tribeId, member.getTribe());
+            assertEquals(Tribe.Rank.CAPTAIN, member.getRank());
+            assertEquals(Member.PvpState.OFF, member.getPvpState());
+            assertEquals(10 + memberIds.indexOf(member.getUniqueId()), member.getScore());
+        }
+        assertEquals(3, storage.loadTribes().size());
+        Tribe tribe = storage.loadTribes(tribeId).get(0);
+        assertEquals(owner, tribe.getOwner());
+        assertEquals("first", tribe.getName());
+        assertEquals(Tribe.Level.SMALL, tribe.getLevel());
+        assertEquals(Vec3f.fromCoordinates(Fixtures.WORLD_NAME, 10, 64, -20, 1.5F, 90.0F), tribe.getHome());
+
+        // drained and dropped
+        for (String table : Arrays.asList("TR_CELLS_V1", "TR_MEMBERS_V1", "TR_TRIBES_V1")) {
+            assertEquals("0", query("SELECT COUNT(*) FROM information_schema.tables WHERE UPPER(table_name)='" +
+                    table + "'"));
+        }
+        assertEquals("2", query("SELECT value FROM tr_meta WHERE name='schema_version'"));
+    }
+
+    private void execute(String sql) throws SQLException {
+        Connection connection = DriverManager.getConnection((String) settings.get("db.mysql-url"), "sa", "");
+        try {
+            Statement statement = connection.createStatement();
+            statement.executeUpdate(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private String query(String sql) throws SQLException {
+        Connection connection = DriverManager.getConnection((String) settings.get("db.mysql-url"), "sa", "");
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery(sql);
+            String value = resultSet.next() ? resultSet.getString(1) : null;
+            statement.close();
+            return value;
+        } finally {
+            connection.close();
+        }
+    }
+
+}
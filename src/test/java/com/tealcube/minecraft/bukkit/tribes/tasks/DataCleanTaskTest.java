@@ -0,0 +1,108 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Teal Cube Games
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.tealcube.minecraft.bukkit.tribes.tasks;
+
+import com.tealcube.minecraft.bukkit.tribes.Fixtures;
+import com.tealcube.minecraft.bukkit.tribes.TribesPlugin;
+import com.tealcube.minecraft.bukkit.tribes.data.Cell;
+import com.tealcube.minecraft.bukkit.tribes.data.Tribe;
+import com.tealcube.minecraft.bukkit.tribes.managers.CellManager;
+import com.tealcube.minecraft.bukkit.tribes.managers.MemberManager;
+import com.tealcube.minecraft.bukkit.tribes.managers.TribeManager;
+import com.tealcube.minecraft.bukkit.tribes.math.Vec2;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the clean pass over managers as they look after the member scan failed: a tribe and its land are there, but
+ * none of its members are.
+ */
+public class DataCleanTaskTest {
+
+    private File dataFolder;
+    private TribesPlugin plugin;
+    private TribeManager tribeManager;
+    private CellManager cellManager;
+    private UUID tribeId;
+    private Vec2 claim;
+
+    @Before
+    public void setUp() {
+        dataFolder = Fixtures.createTempFolder("tribes-clean");
+        plugin = Fixtures.createPlugin(dataFolder, new HashMap<String, Object>());
+        tribeId = UUID.randomUUID();
+        Tribe tribe = new Tribe(tribeId);
+        tribe.setName("tribe");
+        tribe.setOwner(UUID.randomUUID());
+        tribe.setRank(tribe.getOwner(), Tribe.Rank.LEADER);
+        tribeManager = new TribeManager();
+        tribeManager.addTribe(tribe);
+        tribeManager.clearDirty();
+        claim = Vec2.fromCoordinates(Fixtures.WORLD_NAME, 4, -7);
+        cellManager = new CellManager();
+        cellManager.placeCell(claim, new Cell(claim, tribeId));
+        cellManager.clearDirty();
+        when(plugin.getTribeManager()).thenReturn(tribeManager);
+        when(plugin.getCellManager()).thenReturn(cellManager);
+        // nothing was read
+        when(plugin.getMemberManager()).thenReturn(new MemberManager());
+    }
+
+    @After
+    public void tearDown() {
+        Fixtures.delete(dataFolder);
+    }
+
+    @Test
+    public void testQueuesNoDeletesAfterAFailedMemberScan() {
+        when(plugin.isDataComplete()).thenReturn(false);
+
+        new DataCleanTask(plugin).run();
+
+        assertTrue(tribeManager.takeRemovedTribes().isEmpty());
+        assertTrue(cellManager.takeRemovedCells().isEmpty());
+        assertTrue(tribeManager.getTribe(tribeId).isPresent());
+        assertTrue(cellManager.getCell(claim).isPresent());
+    }
+
+    @Test
+    public void testRemovesTribesWithoutMembersOnceLoaded() {
+        when(plugin.isDataComplete()).thenReturn(true);
+
+        new DataCleanTask(plugin).run();
+
+        assertEquals(Arrays.asList(tribeId), tribeManager.takeRemovedTribes());
+        assertEquals(Arrays.asList(claim), cellManager.takeRemovedCells());
+    }
+
+}